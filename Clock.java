@@ -0,0 +1,6 @@
+
+public interface Clock {
+	public long millis();                            // Returns the current time (ms).
+	public void sleep(int ms);                       // Suspends the calling thread during ms.
+	public void start(Runnable task, int priority);  // Runs the task in a new thread.
+}
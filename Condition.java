@@ -0,0 +1,4 @@
+
+public interface Condition {
+	public boolean isMet();       // Returns true when the sensor condition that ends a maneuver step holds.
+}
@@ -2,41 +2,79 @@ import com.ridgesoft.robotics.Motor;
 import com.ridgesoft.robotics.Servo;
 
 public class ContinuousRotationServo implements Motor {
+	public static final int NEUTRAL = 50;  // Position that stops the servo.
+	private static final int OFF = -1;     // Position that stands for the servo turned off.
+	private static final int UNKNOWN = -2; // Position before the first write.
+
 	private Servo mServo;
-	private boolean mReverse;
-	private int mRange;
+	private int[] mPositions;   // Position for each power, from Motor.MAX_REVERSE to Motor.MAX_FORWARD.
+	private int mPosition;      // Last position written to the servo.
+	private int mRamp;          // Maximum change of the power per call, 0 for no limit.
+	private int mPower;         // Power applied, which lags behind the one asked while ramping.
 
 	public ContinuousRotationServo(Servo servo, boolean reverse, int range) {
 		mServo = servo;     // Object to represent the servo motor.
-		mReverse = reverse; // Flag to that indicates if the value of the power should by inverted.
-		mRange = range;     // Value to define the effective range above and below the neutral value 0f 50.
+		// reverse: Flag to that indicates if the value of the power should by inverted.
+		// range: Value to define the effective range above and below the neutral value 0f 50.
+
+		// Convert every value of power into a value of range for the setPosition() once.
+		// Motor.MAX_FORWARD -> range
+		// power -> X
+		// A power of zero turns the servo off.
+		mPositions = new int[Motor.MAX_FORWARD - Motor.MAX_REVERSE + 1];
+		for (int p = Motor.MAX_REVERSE; p <= Motor.MAX_FORWARD; p++) {
+			int power = (reverse ? -p : p);
+			mPositions[p - Motor.MAX_REVERSE] = (power == 0 ? OFF : (power * range) / Motor.MAX_FORWARD + NEUTRAL);
+		}
+		mPosition = UNKNOWN;
+	}
+
+	public void setRamp(int ramp) {
+		// Limits the change of the power to ramp on each call of setPower(), to avoid wheel
+		// slip and current spikes. setPower() must then be called on every tick until the
+		// power asked is reached. brake() and stop() always act at once.
+		mRamp = ramp;
 	}
 
 	public void brake() {
-		mServo.setPosition(50);
+		mPower = 0;
+		write(NEUTRAL);
 	}
 
-	public void setPower(int power) {
-		// If mReverse is true, invert the sense of direction for this servo motor.
-		if (mReverse)
-			power = -power; 
+	public Servo getServo() {
+		return mServo;
+	}
 
-		// Turn servo off when the power is set to zero and limit the range of the power variable. 
-		if (power == 0) {
-			mServo.off();
-			return;
-		} else if (power > Motor.MAX_FORWARD)
+	public void setPower(int power) {
+		// Limit the range of the power variable.
+		if (power > Motor.MAX_FORWARD)
 			power = Motor.MAX_FORWARD; // 16
 		else if (power < Motor.MAX_REVERSE)
 			power = Motor.MAX_REVERSE; // -16
 
-		// Convert the value of power into a value of range for the setPosition().
-		// Motor.MAX_FORWARD -> mRange
-		// power -> X
-		mServo.setPosition((power * mRange) / Motor.MAX_FORWARD + 50);
+		if (mRamp > 0) {
+			if (power > mPower + mRamp)
+				power = mPower + mRamp;
+			else if (power < mPower - mRamp)
+				power = mPower - mRamp;
+		}
+		mPower = power;
+		write(mPositions[power - Motor.MAX_REVERSE]);
 	}
 
 	public void stop() {
-		mServo.off();
+		mPower = 0;
+		write(OFF);
+	}
+
+	private void write(int position) {
+		// Only the changes are sent to the servo. Nothing else must write to it.
+		if (position == mPosition)
+			return;
+		mPosition = position;
+		if (position == OFF)
+			mServo.off();
+		else
+			mServo.setPosition(position);
 	}
 }
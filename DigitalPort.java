@@ -0,0 +1,6 @@
+
+public interface DigitalPort {
+	public boolean isSet();       // Returns true if the input is high.
+	public void set();            // Sets the output high.
+	public void clear();          // Sets the output low.
+}
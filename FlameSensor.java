@@ -3,4 +3,8 @@ public interface FlameSensor {
 	public int scan();            // Performs a scan and returns the direction of the flame.
 	public int getDirection();    // Returns the last known direction.
 	public int getValue();        // Returns the maximum raw value (radiation value).
+	public int getBearing();      // Returns the bearing of the flame found by the last scan (millidegrees, left positive).
+	public int getProximity();    // Returns how near the flame is, in percent of the near limit, at most 100.
+	public int getEnergy();       // Returns the sum of the values of all the sensors in the last scan.
+	public int getSensor(int i);  // Returns the value of sensor i, from the far right.
 }
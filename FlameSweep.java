@@ -0,0 +1,74 @@
+public class FlameSweep {
+
+	// Intensity of the flame all around the robot, gathered while it turns once in
+	// place. Every scan adds the value of each flame sensor to the bin of the direction
+	// that sensor faces, relative to the arena like the heading, so after a full turn
+	// each bin holds what the sensors saw that way. The bins are allocated once and
+	// only cleared between sweeps.
+
+	private static final int FULL_TURN = 360000;
+
+	private int[] mBearings;  // Bearing of each sensor from the heading (millidegrees).
+	private int mWidth;       // Angle covered by a bin (millidegrees).
+	private int[] mSums;      // Sum of the values added to each bin.
+	private int[] mCounts;    // Number of values added to each bin.
+
+	public FlameSweep(int[] bearings, int bins) {
+		mBearings = bearings;
+		mWidth = FULL_TURN / bins;
+		mSums = new int[bins];
+		mCounts = new int[bins];
+	}
+
+	public void reset() {
+		// Empties the bins before a new sweep.
+		for (int i = 0; i < mSums.length; i++) {
+			mSums[i] = 0;
+			mCounts[i] = 0;
+		}
+	}
+
+	public void add(int heading, int sensor, int value) {
+		// Adds the value of a sensor, read with the robot at heading (millidegrees).
+		int i = bin(heading + mBearings[sensor]);
+		mSums[i] += value;
+		mCounts[i]++;
+	}
+
+	public int getPeak() {
+		// Bin with the highest mean value over itself and its two neighbours, so a single
+		// bright reading does not win over a wider peak. -1 if nothing was added.
+		int peak = -1;
+		int best = -1;
+		int n = mSums.length;
+		for (int i = 0; i < n; i++) {
+			int v = mean(i == 0 ? n - 1 : i - 1) + 2 * mean(i) + mean(i == n - 1 ? 0 : i + 1);
+			if (mCounts[i] > 0 && v > best) {
+				best = v;
+				peak = i;
+			}
+		}
+		return peak;
+	}
+
+	public int getValue(int bin) {
+		// Mean of the values added to a bin, 0 if none.
+		return mean(bin);
+	}
+
+	public int getDirection(int bin) {
+		// Direction of the centre of a bin (millidegrees, 0 to a full turn).
+		return bin * mWidth + (mWidth >> 1);
+	}
+
+	private int bin(int direction) {
+		direction %= FULL_TURN;
+		if (direction < 0)
+			direction += FULL_TURN;
+		return direction / mWidth;
+	}
+
+	private int mean(int bin) {
+		return (mCounts[bin] == 0 ? 0 : mSums[bin] / mCounts[bin]);
+	}
+}
@@ -0,0 +1,68 @@
+public class FlameTracker {
+
+	// Alpha-beta filter of the direction of the flame over successive scans. The
+	// direction is kept relative to the arena, the heading of the robot plus the
+	// bearing, so the robot turning does not look like the flame moving. Through the
+	// scans that miss the flame the direction coasts on its rate, and the flame is
+	// only lost once it has not been seen for the longest gap.
+
+	private PoseEstimator mPose;
+	private int mAlpha;       // Gain of the direction, Q8.
+	private int mBeta;        // Gain of the rate, Q8.
+	private int mMaxGap;      // Longest time without seeing the flame (ms).
+
+	private boolean mLocked;
+	private int mDirection;   // Direction of the flame (millidegrees, as the heading).
+	private int mRate;        // Change of the direction, in millidegrees per ms and Q8.
+	private long mLast;       // Time of the last update.
+	private long mLastSeen;   // Time the flame was last seen.
+
+	public FlameTracker(PoseEstimator pose, int alpha, int beta, int maxGap) {
+		mPose = pose;
+		mAlpha = alpha;
+		mBeta = beta;
+		mMaxGap = maxGap;
+	}
+
+	public void reset() {
+		// Forgets the flame, the next scan that finds it locks on again.
+		mLocked = false;
+	}
+
+	public boolean update(long now, boolean found, int bearing) {
+		// Adds a scan, with the bearing it found if found. Returns true while the flame
+		// is tracked, that is unless it has been missing for longer than the gap.
+		int heading = mPose.getHeading();
+		if (!mLocked) {
+			if (found) {
+				mDirection = heading + bearing;
+				mRate = 0;
+				mLocked = true;
+				mLastSeen = now;
+			}
+			mLast = now;
+			return mLocked;
+		}
+
+		int dt = (int) (now - mLast);
+		mLast = now;
+		int predicted = mDirection + ((mRate * dt) >> 8);
+		if (found) {
+			int residual = heading + bearing - predicted;
+			mDirection = predicted + ((mAlpha * residual) >> 8);
+			if (dt > 0)
+				mRate += (mBeta * residual) / dt;
+			mLastSeen = now;
+		} else {
+			mDirection = predicted;
+			if (now - mLastSeen > mMaxGap)
+				mLocked = false;
+		}
+		return mLocked;
+	}
+
+	public int getBearing() {
+		// Bearing of the flame from the robot now (millidegrees, left positive).
+		return mDirection - mPose.getHeading();
+	}
+}
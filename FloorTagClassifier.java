@@ -0,0 +1,104 @@
+import com.ridgesoft.robotics.AnalogInput;
+
+public class FloorTagClassifier implements Runnable {
+
+	// Tells the white lines from the white circle while the robot moves over them. The
+	// line sensor is sampled on its own schedule, faster than the control loop, and the
+	// length of every run of white is measured by the distance travelled meanwhile: a
+	// run that gets longer than a chord near the middle of the circle is the circle, and
+	// any shorter one is a line crossed into a room, even at a slant or along a doorway.
+	// A run over the edge of the circle is taken for a line too. The tag is reported as soon as it is known, and
+	// only once. Nothing is locked: the sampler publishes each tag with a number of its
+	// own in a single volatile field, and the control loop only writes the flag that
+	// enables it.
+
+	public static final int LINE_TAG = 0;
+	public static final int CIRCLE_TAG = 1;
+	public static final int NO_TAG = 2;
+
+	private AnalogInput mSensor;
+	private PoseEstimator mPose;
+	private Clock mClock;
+	private int mLimit;
+	private int mInterval;
+	private int mCircleChord;
+
+	private volatile boolean mEnabled;
+
+	// Owned by the sampler.
+	private boolean mSampling;    // Enabled at the last sample.
+	private boolean mWhite;       // In a run of white.
+	private boolean mDecided;     // The run in progress was already reported as the circle.
+	private int mRunStart;        // Distance travelled at the start of the run (mm).
+	private volatile int mPublished = NO_TAG; // Number of the last tag found, times 4, plus the tag.
+
+	// Owned by the control loop.
+	private int mPolled = NO_TAG; // Last tag polled, as published.
+
+	public FloorTagClassifier(AnalogInput sensor, PoseEstimator pose, Clock clock, int limit, int interval,
+			int circleChord) {
+		mSensor = sensor;
+		mPose = pose;               // Measures the distance travelled over the white.
+		mClock = clock;
+		mLimit = limit;             // Values below the limit are white.
+		mInterval = interval;       // Time between samples (ms).
+		mCircleChord = circleChord; // Shortest run of white that is the circle (mm).
+	}
+
+	public void start() {
+		// The sampler runs above the control loop so short runs of white are not missed.
+		mClock.start(this, Thread.MAX_PRIORITY - 1);
+	}
+
+	public void run() {
+		while (true) {
+			sample();
+			mClock.sleep(mInterval);
+		}
+	}
+
+	public void sample() {
+		if (!mEnabled) {
+			mSampling = false;
+			return;
+		}
+		if (!mSampling) {
+			mSampling = true;
+			mWhite = false; // A run in progress is measured from now on.
+		}
+		boolean white = mSensor.sample() < mLimit;
+		int travelled = mPose.getTravelled();
+		if (white && !mWhite) {
+			mRunStart = travelled;
+			mDecided = false;
+		} else if (white && !mDecided && travelled - mRunStart > mCircleChord) {
+			publish(CIRCLE_TAG); // Still white past a chord of the circle.
+			mDecided = true;
+		} else if (!white && mWhite && !mDecided) {
+			publish(LINE_TAG);
+		}
+		mWhite = white;
+	}
+
+	private void publish(int tag) {
+		mPublished = (mPublished & ~3) + 4 | tag;
+	}
+
+	public int poll() {
+		// Returns the tag found since the last poll, NO_TAG if none. Of two tags found
+		// between polls only the last one is returned.
+		int published = mPublished;
+		if (published == mPolled)
+			return NO_TAG;
+		mPolled = published;
+		return published & 3;
+	}
+
+	public void setEnabled(boolean enabled) {
+		// While disabled nothing is classified, and a run of white in progress when
+		// enabled again is only measured from then on. A tag found before is dropped.
+		if (enabled && !mEnabled)
+			mPolled = mPublished;
+		mEnabled = enabled;
+	}
+}
@@ -0,0 +1,176 @@
+import com.ridgesoft.robotics.AnalogInput;
+
+public class InputSampler implements Runnable {
+
+	// Samples the inputs of the robot on its own schedule, above the control loop, and
+	// publishes them together in a snapshot: the flame sensors, the UVTron, the line
+	// sensor, the bumpers and the buttons, with the latest sonar distances. The control
+	// loop takes the inputs once per tick with read(), and the views returned by the
+	// get methods stand in for the devices, answering from that copy without waiting
+	// for a conversion.
+
+	// Digital inputs, in the order of their flags in the telemetry.
+	public static final int LEFT_BUMPER = 0;
+	public static final int RIGHT_BUMPER = 1;
+	public static final int START_BUTTON = 2;
+	public static final int STOP_BUTTON = 3;
+
+	// Slots of the snapshot.
+	public static final int FLAME_DIRECTION = 0;
+	public static final int FLAME_VALUE = 1;
+	public static final int FLAME_BEARING = 2;
+	public static final int FLAME_PROXIMITY = 3;
+	public static final int FLAME_ENERGY = 4;
+	public static final int FLAMES = 5;       // Values of the flame sensors, 5 slots.
+	public static final int UVTRON = 10;
+	public static final int LINE = 11;
+	public static final int PORTS = 12;       // Digital inputs, bit i set when input i is set.
+	public static final int SONARS = 13;      // Sonar distances (cm) as float bits, 3 slots.
+	public static final int SONARS_MM = 16;   // Sonar distances (mm), 3 slots.
+	public static final int SONAR_COUNT = 19; // Echoes published by the sonar sampler.
+	public static final int SIZE = 20;
+
+	private FlameSensor mFlameSensor;
+	private AnalogInput mUVTron;
+	private AnalogInput mLine;
+	private DigitalPort[] mPorts;
+	private SonarSampler mSonars;
+	private Clock mClock;
+	private int mInterval;
+
+	private Snapshot mSnapshot = Snapshot.create(SIZE);
+	private int[] mTick = new int[SIZE]; // Inputs of the current tick of the control loop.
+
+	public InputSampler(FlameSensor flameSensor, AnalogInput uvTron, AnalogInput line, DigitalPort[] ports,
+			SonarSampler sonars, Clock clock, int interval) {
+		mFlameSensor = flameSensor; // Scanned on every sample.
+		mUVTron = uvTron;
+		mLine = line;
+		mPorts = ports;             // Digital inputs, see LEFT_BUMPER.
+		mSonars = sonars;           // Sampled by their own thread, only their last distances are copied.
+		mClock = clock;
+		mInterval = interval;       // Time between samples (ms).
+	}
+
+	public void start() {
+		// The first sample is taken here, so the control loop never sees an empty
+		// snapshot. The sampler then runs above the control loop and below the sonars.
+		sample();
+		mClock.start(this, Thread.MAX_PRIORITY - 2);
+	}
+
+	public void run() {
+		while (true) {
+			mClock.sleep(mInterval);
+			sample();
+		}
+	}
+
+	public void sample() {
+		// Samples every input, then publishes them in one short write.
+		mFlameSensor.scan();
+		int uv = mUVTron.sample();
+		int line = mLine.sample();
+		int ports = 0;
+		for (int i = 0; i < mPorts.length; i++) {
+			if (mPorts[i].isSet())
+				ports |= 1 << i;
+		}
+		int count = mSonars.getCount(); // Read first, the distances are then at least as recent.
+
+		Snapshot s = mSnapshot;
+		s.begin();
+		s.set(FLAME_DIRECTION, mFlameSensor.getDirection());
+		s.set(FLAME_VALUE, mFlameSensor.getValue());
+		s.set(FLAME_BEARING, mFlameSensor.getBearing());
+		s.set(FLAME_PROXIMITY, mFlameSensor.getProximity());
+		s.set(FLAME_ENERGY, mFlameSensor.getEnergy());
+		for (int i = 0; i < 5; i++)
+			s.set(FLAMES + i, mFlameSensor.getSensor(i));
+		s.set(UVTRON, uv);
+		s.set(LINE, line);
+		s.set(PORTS, ports);
+		for (int i = 0; i < 3; i++) {
+			s.set(SONARS + i, Float.floatToIntBits(mSonars.getDistance(i)));
+			s.set(SONARS_MM + i, mSonars.getDistanceMm(i));
+		}
+		s.set(SONAR_COUNT, count);
+		s.end();
+	}
+
+	public void read() {
+		// Takes the inputs published last, once per tick of the control loop. The views
+		// answer from them until the next call.
+		mSnapshot.read(mTick);
+	}
+
+	public int get(int slot) {
+		// Value of a slot in the inputs of the current tick.
+		return mTick[slot];
+	}
+
+	public int[] getValues() {
+		// The inputs of the current tick, to be published with the status of the loop.
+		return mTick;
+	}
+
+	// ================================================================================
+	// Views of the inputs of the current tick, in place of the devices.
+	// ================================================================================
+
+	public FlameSensor getFlameSensor() {
+		// The scans are those of the sampler: scan() only returns the last direction.
+		return new FlameSensor() {
+			public int scan() {
+				return mTick[FLAME_DIRECTION];
+			}
+
+			public int getDirection() {
+				return mTick[FLAME_DIRECTION];
+			}
+
+			public int getValue() {
+				return mTick[FLAME_VALUE];
+			}
+
+			public int getBearing() {
+				return mTick[FLAME_BEARING];
+			}
+
+			public int getProximity() {
+				return mTick[FLAME_PROXIMITY];
+			}
+
+			public int getEnergy() {
+				return mTick[FLAME_ENERGY];
+			}
+
+			public int getSensor(int i) {
+				return mTick[FLAMES + i];
+			}
+		};
+	}
+
+	public AnalogInput getInput(final int slot) {
+		return new AnalogInput() {
+			public int sample() {
+				return mTick[slot];
+			}
+		};
+	}
+
+	public DigitalPort getPort(final int port) {
+		// An input only, setting it does nothing.
+		return new DigitalPort() {
+			public boolean isSet() {
+				return (mTick[PORTS] & (1 << port)) != 0;
+			}
+
+			public void set() {
+			}
+
+			public void clear() {
+			}
+		};
+	}
+}
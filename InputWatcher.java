@@ -0,0 +1,108 @@
+public class InputWatcher implements Runnable {
+
+	// Watches the bumpers and the stop button at a high rate, above every other thread,
+	// so a press shorter than a tick of the control loop is not missed and its time is
+	// known to within the interval. Each press is counted and timed per input and the
+	// counts are published in a snapshot: the control loop reads them once per tick and
+	// reacts to the inputs pressed since the tick before, whatever it was doing.
+
+	// Inputs, as flags.
+	public static final int LEFT_BUMPER = 0x01;
+	public static final int RIGHT_BUMPER = 0x02;
+	public static final int STOP_BUTTON = 0x04;
+	private static final int INPUTS = 3;
+
+	// Slots of the snapshot.
+	private static final int HELD = 0;      // Inputs held at the last poll, as flags.
+	private static final int PRESSES = 1;   // Presses of each input so far, 3 slots.
+	private static final int TIMES = 4;     // Time of the last press of each input (ms), 3 slots.
+	private static final int SIZE = 7;
+
+	private DigitalPort[] mPorts;
+	private Clock mClock;
+	private int mInterval;
+
+	// Owned by the watcher.
+	private Snapshot mSnapshot = Snapshot.create(SIZE);
+	private int mHeld;
+	private int[] mPresses = new int[INPUTS];
+	private int[] mTimes = new int[INPUTS];
+
+	// Owned by the control loop.
+	private int[] mRead = new int[SIZE];
+	private int[] mSeen = new int[INPUTS]; // Presses of each input already reported.
+
+	public InputWatcher(DigitalPort leftBumper, DigitalPort rightBumper, DigitalPort stopButton, Clock clock,
+			int interval) {
+		mPorts = new DigitalPort[] { leftBumper, rightBumper, stopButton }; // All read low when pressed.
+		mClock = clock;
+		mInterval = interval; // Time between polls (ms).
+	}
+
+	public void start() {
+		mClock.start(this, Thread.MAX_PRIORITY);
+	}
+
+	public void run() {
+		while (true) {
+			poll();
+			mClock.sleep(mInterval);
+		}
+	}
+
+	public void poll() {
+		// Reads the inputs and publishes them if any changed.
+		int held = 0;
+		for (int i = 0; i < INPUTS; i++) {
+			if (!mPorts[i].isSet())
+				held |= 1 << i;
+		}
+		if (held == mHeld)
+			return;
+		int now = (int) mClock.millis();
+		int pressed = held & ~mHeld;
+		mHeld = held;
+
+		Snapshot s = mSnapshot;
+		s.begin();
+		s.set(HELD, held);
+		for (int i = 0; i < INPUTS; i++) {
+			if ((pressed & (1 << i)) != 0) {
+				mPresses[i]++;
+				mTimes[i] = now;
+			}
+			s.set(PRESSES + i, mPresses[i]);
+			s.set(TIMES + i, mTimes[i]);
+		}
+		s.end();
+	}
+
+	public int read() {
+		// Takes the inputs published last, once per tick of the control loop, and
+		// returns those pressed since the previous call, as flags.
+		mSnapshot.read(mRead);
+		int pressed = 0;
+		for (int i = 0; i < INPUTS; i++) {
+			if (mRead[PRESSES + i] != mSeen[i]) {
+				mSeen[i] = mRead[PRESSES + i];
+				pressed |= 1 << i;
+			}
+		}
+		return pressed;
+	}
+
+	public int getHeld() {
+		// Inputs held when last read, as flags.
+		return mRead[HELD];
+	}
+
+	public long getPressTime(int inputs) {
+		// Time (ms) of the earliest of the last presses of the given inputs.
+		long time = Long.MAX_VALUE;
+		for (int i = 0; i < INPUTS; i++) {
+			if ((inputs & (1 << i)) != 0 && mRead[TIMES + i] < time)
+				time = mRead[TIMES + i];
+		}
+		return time;
+	}
+}
@@ -0,0 +1,25 @@
+import com.ridgesoft.intellibrain.IntelliBrainDigitalIO;
+
+public class IntelliBrainPort implements DigitalPort {
+	private IntelliBrainDigitalIO mPort;
+
+	public IntelliBrainPort(IntelliBrainDigitalIO port, boolean pullUp, boolean output) {
+		mPort = port; // Object to represent the digital I/O port of the IntelliBrain.
+		if (pullUp)
+			mPort.setPullUp(true);
+		if (output)
+			mPort.setDirection(true);
+	}
+
+	public boolean isSet() {
+		return mPort.isSet();
+	}
+
+	public void set() {
+		mPort.set();
+	}
+
+	public void clear() {
+		mPort.clear();
+	}
+}
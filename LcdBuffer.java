@@ -0,0 +1,101 @@
+import com.ridgesoft.io.Display;
+
+public class LcdBuffer {
+	private Display mLcd;
+	private int mPeriod;
+	private long mLastRefresh;
+
+	private char[][] mLines;  // Text to show on each line.
+	private int[] mLength;
+	private char[][] mShown;  // Text on the LCD, to send only the lines that changed.
+	private int[] mShownLength;
+
+	private int mLine;        // Line being written by the append methods.
+	private char[] mDigits = new char[10];
+
+	public LcdBuffer(Display lcd, int period) {
+		mLcd = lcd;
+		mPeriod = period; // Minimum time between two refreshes of the LCD (ms).
+
+		int lines = lcd.getNumLines();
+		int columns = lcd.getNumColumns();
+		mLines = new char[lines][columns];
+		mLength = new int[lines];
+		mShown = new char[lines][columns];
+		mShownLength = new int[lines];
+		for (int i = 0; i < lines; i++)
+			mShownLength[i] = -1; // Unknown, so it is sent on the first refresh.
+		mLastRefresh = -period;
+	}
+
+	public LcdBuffer setLine(int line) {
+		// Clears the line and starts writing it. Nothing is sent to the LCD until refresh().
+		mLine = line;
+		mLength[line] = 0;
+		return this;
+	}
+
+	public LcdBuffer append(String s) {
+		int n = s.length();
+		for (int i = 0; i < n; i++)
+			append(s.charAt(i));
+		return this;
+	}
+
+	public LcdBuffer append(char c) {
+		// The characters that do not fit on the line are dropped.
+		char[] line = mLines[mLine];
+		if (mLength[mLine] < line.length)
+			line[mLength[mLine]++] = c;
+		return this;
+	}
+
+	public LcdBuffer append(int v) {
+		// Formats the value in place, without creating a String.
+		if (v < 0)
+			append('-');
+		else
+			v = -v; // Work with negative values, so that MIN_VALUE also fits.
+
+		// The digits come out from the least significant one.
+		int n = 0;
+		do {
+			mDigits[n++] = (char) ('0' - v % 10);
+			v /= 10;
+		} while (v != 0);
+		while (n > 0)
+			append(mDigits[--n]);
+		return this;
+	}
+
+	public boolean refresh(long now) {
+		// Sends the lines that changed since the last refresh, at most once per period.
+		// Returns true if the LCD was written.
+		if (now - mLastRefresh < mPeriod)
+			return false;
+		mLastRefresh = now;
+
+		boolean written = false;
+		for (int i = 0; i < mLines.length; i++) {
+			if (isShown(i))
+				continue;
+			System.arraycopy(mLines[i], 0, mShown[i], 0, mLength[i]);
+			mShownLength[i] = mLength[i];
+			mLcd.print(i, new String(mLines[i], 0, mLength[i])); // Only allocates when the line changed.
+			written = true;
+		}
+		return written;
+	}
+
+	private boolean isShown(int line) {
+		int n = mLength[line];
+		if (n != mShownLength[line])
+			return false;
+		char[] a = mLines[line];
+		char[] b = mShown[line];
+		for (int i = 0; i < n; i++)
+			if (a[i] != b[i])
+				return false;
+		return true;
+	}
+}
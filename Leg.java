@@ -0,0 +1,33 @@
+public class Leg {
+
+	// How the robot drives from a place of the arena to the next, see RBv2019.startLeg():
+	// an optional turn and move to leave the place, and another turn and move to find
+	// the wall, then a wall to follow until the line or the circle of the next place.
+
+	int mTurn;               // Angle to turn first (degrees), 0 for none.
+	int mPower;              // Power and delta of the move after the turn.
+	int mDelta;
+	int mDuration;           // Duration of the move (ms), 0 for none.
+	Condition mUntil;        // Condition that ends the move earlier, or null.
+	int mThenTurn;           // Angle to turn after the move (degrees), 0 for none.
+	int mThenDuration;       // Duration of the straight move after it (ms), 0 for none.
+	Condition mThenUntil;
+	WallFollower mFollower;  // Wall followed to the next place.
+
+	public Leg(int turn, int power, int delta, int duration, Condition until, WallFollower follower) {
+		this(turn, power, delta, duration, until, 0, 0, null, follower);
+	}
+
+	public Leg(int turn, int power, int delta, int duration, Condition until, int thenTurn, int thenDuration,
+			Condition thenUntil, WallFollower follower) {
+		mTurn = turn;
+		mPower = power;
+		mDelta = delta;
+		mDuration = duration;
+		mUntil = until;
+		mThenTurn = thenTurn;
+		mThenDuration = thenDuration;
+		mThenUntil = thenUntil;
+		mFollower = follower;
+	}
+}
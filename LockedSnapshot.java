@@ -0,0 +1,27 @@
+public class LockedSnapshot extends Snapshot {
+
+	// Snapshot for threads that run on several processors, where the sequence alone does
+	// not order the writes of the values: every access takes the lock of the snapshot.
+	// A reader that finds a write in progress still lets go and tries again, see read().
+	// Only the simulator uses it, with -realtime.
+
+	public LockedSnapshot(int size) {
+		super(size);
+	}
+
+	public synchronized void begin() {
+		super.begin();
+	}
+
+	public synchronized void set(int i, int value) {
+		super.set(i, value);
+	}
+
+	public synchronized void end() {
+		super.end();
+	}
+
+	synchronized int copy(int[] values) {
+		return super.copy(values);
+	}
+}
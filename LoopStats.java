@@ -0,0 +1,177 @@
+import java.io.PrintStream;
+
+import com.ridgesoft.robotics.AnalogInput;
+import com.ridgesoft.robotics.RangeFinder;
+
+public class LoopStats {
+
+	// Histograms of the duration of the iterations of the control loop, one per state,
+	// and counters of the use of the hardware. Everything is allocated up front, so
+	// recording adds no garbage to the loop.
+
+	// Upper limit of each bucket (ms), the last bucket takes everything above.
+	private static final int[] LIMITS = { 0, 1, 2, 4, 8, 16, 32, 64 };
+	private static final int BUCKETS = LIMITS.length + 1;
+
+	private String[] mNames;
+	private int[][] mHistogram;
+	private long[] mTotal;
+	private int[] mMax;
+
+	private Clock mClock;
+	private long mStart;
+	private int mIterations;
+
+	private volatile int mPings;
+	private CountedInput[] mInputs = new CountedInput[0]; // Counted inputs, see count(AnalogInput).
+	private int mSleeps;        // Only counted for the control loop, see count(Clock).
+
+	private int mReactions;     // Contacts backed off from, see recordReaction().
+	private long mReactionTotal;
+	private int mReactionMax;
+
+	public LoopStats(String[] names, Clock clock) {
+		mNames = names; // Name of each state, by number.
+		mClock = clock;
+		mHistogram = new int[names.length][BUCKETS];
+		mTotal = new long[names.length];
+		mMax = new int[names.length];
+		mStart = clock.millis();
+	}
+
+	public void record(int state, long start) {
+		// Records an iteration of the loop spent in state, started at the given time.
+		int d = (int) (mClock.millis() - start);
+		int b = 0;
+		while (b < LIMITS.length && d > LIMITS[b])
+			b++;
+		mHistogram[state][b]++;
+		mTotal[state] += d;
+		if (d > mMax[state])
+			mMax[state] = d;
+		mIterations++;
+	}
+
+	public void recordReaction(int latency) {
+		// Records the time (ms) from a contact seen by the input watcher to the command
+		// that backs off from it.
+		mReactions++;
+		mReactionTotal += latency;
+		if (latency > mReactionMax)
+			mReactionMax = latency;
+	}
+
+	public void print(PrintStream out) {
+		// Dumps the summary, only after the run since it creates Strings. The counts are
+		// read without a lock.
+		long elapsed = mClock.millis() - mStart;
+		int samples = 0;
+		for (int i = 0; i < mInputs.length; i++)
+			samples += mInputs[i].mSamples;
+		out.println("Iterations: " + mIterations + " in " + elapsed + " ms"
+				+ (elapsed > 0 ? " (" + (mIterations * 1000L / elapsed) + " Hz)" : ""));
+		out.println("Pings: " + mPings + ", samples: " + samples + ", sleeps: " + mSleeps);
+		out.println("Reactions: " + mReactions + (mReactions > 0 ? ", mean " + (mReactionTotal / mReactions)
+				+ " ms, max " + mReactionMax + " ms" : ""));
+
+		printHistogram(out, "Count", mNames, LIMITS, mHistogram, mTotal, mMax);
+	}
+
+	static void printHistogram(PrintStream out, String count, String[] names, int[] limits, int[][] histogram,
+			long[] total, int[] max) {
+		// Prints a histogram per state, with one bucket per limit and one above, leaving
+		// out the states that have nothing in it. Shared with the Watchdog.
+		StringBuffer sb = new StringBuffer("State       ");
+		sb.append(pad(count, 9)).append(pad("Mean", 6)).append(pad("Max", 6));
+		for (int b = 0; b < limits.length; b++)
+			sb.append(pad("<=" + limits[b], 7));
+		sb.append(pad(">" + limits[limits.length - 1], 7));
+		out.println(sb.toString());
+
+		for (int s = 0; s < names.length; s++) {
+			int n = 0;
+			for (int b = 0; b <= limits.length; b++)
+				n += histogram[s][b];
+			if (n == 0)
+				continue;
+			sb.setLength(0);
+			sb.append(names[s]);
+			while (sb.length() < 12)
+				sb.append(' ');
+			sb.append(pad("" + n, 9)).append(pad("" + (total[s] / n), 6)).append(pad("" + max[s], 6));
+			for (int b = 0; b <= limits.length; b++)
+				sb.append(pad("" + histogram[s][b], 7));
+			out.println(sb.toString());
+		}
+	}
+
+	private static String pad(String s, int width) {
+		while (s.length() < width)
+			s = " " + s;
+		return s;
+	}
+
+	// ================================================================================
+	// Counting devices, wrapped around the real ones when the robot starts.
+	// ================================================================================
+
+	public RangeFinder count(final RangeFinder sonar) {
+		return new RangeFinder() {
+			public void ping() {
+				mPings++; // Only the sampler thread pings.
+				sonar.ping();
+			}
+
+			public float getDistanceCm() {
+				return sonar.getDistanceCm();
+			}
+
+			public float getDistanceInches() {
+				return sonar.getDistanceInches();
+			}
+		};
+	}
+
+	public AnalogInput count(AnalogInput input) {
+		// Counts the samples of the input in a count of its own, not locked: every thread
+		// that samples an input must be given its own count of it.
+		CountedInput counted = new CountedInput(input);
+		CountedInput[] inputs = new CountedInput[mInputs.length + 1];
+		System.arraycopy(mInputs, 0, inputs, 0, mInputs.length);
+		inputs[mInputs.length] = counted;
+		mInputs = inputs;
+		return counted;
+	}
+
+	private static class CountedInput implements AnalogInput {
+		private AnalogInput mInput;
+		private int mSamples; // Owned by the thread that samples.
+
+		CountedInput(AnalogInput input) {
+			mInput = input;
+		}
+
+		public int sample() {
+			mSamples++;
+			return mInput.sample();
+		}
+	}
+
+	public Clock count(final Clock clock) {
+		// Counts the sleeps of the one thread that is given the clock, without a lock.
+		return new Clock() {
+			public long millis() {
+				return clock.millis();
+			}
+
+			public void sleep(int ms) {
+				mSleeps++; // Only the thread of the control loop is given this clock.
+				clock.sleep(ms);
+			}
+
+			public void start(Runnable task, int priority) {
+				clock.start(task, priority);
+			}
+		};
+	}
+}
@@ -0,0 +1,148 @@
+import com.ridgesoft.robotics.Motor;
+
+public class Maneuver {
+
+	// Steps that power the wheels for a time, or until a condition is met, or that turn to
+	// a heading. Every step ends after its duration at the latest, so a condition that is
+	// never met does not hold the robot in a maneuver for good.
+
+	private Motor mLeftMotor;
+	private Motor mRightMotor;
+
+	// Steps of the maneuver, preallocated to avoid creating objects in the control loop.
+	private int[] mLeftPower;
+	private int[] mRightPower;
+	private int[] mDuration;
+	private Condition[] mCondition;
+	private int[] mTurn;     // Angle of each step that turns to a heading (millidegrees), 0 otherwise.
+	private int mSteps;
+
+	// Turns to a heading, see setTurns().
+	private PoseEstimator mPose;
+	private int mFastPower;
+	private int mSlowPower;
+	private int mSlowZone;
+	private int mTolerance;
+	private int mTarget;     // Heading at which the current turn ends (millidegrees).
+
+	private int mStep;       // Step being executed, -1 if the maneuver is not active.
+	private long mStepStart; // Time at which the current step started.
+
+	public Maneuver(Motor leftMotor, Motor rightMotor, int maxSteps) {
+		mLeftMotor = leftMotor;
+		mRightMotor = rightMotor;
+
+		mLeftPower = new int[maxSteps];
+		mRightPower = new int[maxSteps];
+		mDuration = new int[maxSteps];
+		mCondition = new Condition[maxSteps];
+		mTurn = new int[maxSteps];
+		mSteps = 0;
+		mStep = -1;
+	}
+
+	public void add(int leftPower, int rightPower, int duration) {
+		add(leftPower, rightPower, duration, null);
+	}
+
+	public void add(int leftPower, int rightPower, int duration, Condition until) {
+		// Adds a step that powers the wheels during duration ms, or until the condition is met.
+		// The steps of a maneuver must fit in the maxSteps given at construction.
+		if (mSteps == mDuration.length)
+			throw new IllegalStateException("Maneuver of more than " + mSteps + " steps");
+		mLeftPower[mSteps] = leftPower;
+		mRightPower[mSteps] = rightPower;
+		mDuration[mSteps] = duration;
+		mCondition[mSteps] = until;
+		mTurn[mSteps] = 0;
+		mSteps++;
+	}
+
+	public void setTurns(PoseEstimator pose, int fastPower, int slowPower, int slowZone, int tolerance) {
+		// Sets how addTurn() turns: at fastPower, slowing down linearly to slowPower in
+		// the last slowZone millidegrees, until the heading is within tolerance.
+		mPose = pose;
+		mFastPower = fastPower;
+		mSlowPower = slowPower;
+		mSlowZone = slowZone;
+		mTolerance = tolerance;
+	}
+
+	public void addTurn(int angle, int timeout) {
+		// Adds a step that turns in place by angle (millidegrees, counterclockwise) from the
+		// heading at which the step starts. It ends as soon as the heading is reached, or
+		// after timeout ms if the heading is never reached.
+		add(0, 0, timeout, null);
+		mTurn[mSteps - 1] = angle;
+	}
+
+	public void start(long now) {
+		// Starts the steps added so far. Does nothing if there are no steps.
+		mStep = -1;
+		next(now);
+	}
+
+	public boolean step(long now) {
+		// Advances the maneuver to the time now. Returns false when it has finished.
+		while (mStep >= 0) {
+			int d = mDuration[mStep];
+			Condition c = mCondition[mStep];
+			if (mTurn[mStep] != 0) {
+				if (now - mStepStart < d && turn())
+					return true;
+			} else if (now - mStepStart < d && (c == null || !c.isMet())) {
+				// The command is given again on every tick, so that motors that ramp up
+				// keep going towards it. Motors that are already there ignore it.
+				mLeftMotor.setPower(mLeftPower[mStep]);
+				mRightMotor.setPower(mRightPower[mStep]);
+				return true;
+			}
+			next(now);
+		}
+		return false;
+	}
+
+	public void cancel() {
+		// Abandons the maneuver, leaving the wheels as they are.
+		mStep = -1;
+		mSteps = 0;
+	}
+
+	public boolean isActive() {
+		return mStep >= 0;
+	}
+
+	private void next(long now) {
+		mStep++;
+		if (mStep >= mSteps) {
+			cancel(); // No more steps, the last command remains on the wheels.
+			return;
+		}
+		mStepStart = now;
+		if (mTurn[mStep] != 0) {
+			mTarget = mPose.getHeading() + mTurn[mStep];
+			turn();
+			return;
+		}
+		mLeftMotor.setPower(mLeftPower[mStep]);
+		mRightMotor.setPower(mRightPower[mStep]);
+	}
+
+	private boolean turn() {
+		// Powers the wheels towards mTarget. Returns false once the heading is reached.
+		int remaining = mTarget - mPose.getHeading();
+		int sign = 1;
+		if (remaining < 0) {
+			remaining = -remaining;
+			sign = -1;
+		}
+		if (remaining <= mTolerance)
+			return false;
+		int power = mFastPower;
+		if (remaining < mSlowZone)
+			power = mSlowPower + (mFastPower - mSlowPower) * remaining / mSlowZone;
+		mLeftMotor.setPower(-sign * power);
+		mRightMotor.setPower(sign * power);
+		return true;
+	}
+}
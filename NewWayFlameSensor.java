@@ -2,12 +2,37 @@ import com.ridgesoft.robotics.AnalogInput;
 
 public class NewWayFlameSensor implements FlameSensor {
 
+	// Filters of the snapshot mode.
+	public static final int MEDIAN = 1;      // Median of the last samples of each sensor.
+	public static final int EXPONENTIAL = 2; // Exponential moving average of each sensor.
+
+	private static final int EMA_SHIFT = 2;  // Weight of a new sample in the average, 1 / 2^EMA_SHIFT.
+	private static final int EMA_SCALE = 4;  // Fractional bits kept by the average.
+
+	// Bearing of each sensor (millidegrees, left positive): direction 1 is far to the
+	// right and direction 5 far to the left, as wired on the robot.
+	public static final int[] BEARINGS = { -60000, -30000, 0, 30000, 60000 };
+
 	private AnalogInput[] mSensors = new AnalogInput[5];
 	private int mIsPresentLimit;
-	private int mIsNearLimit;  //Not used.
+	private int mIsNearLimit;
 
 	private int mFlameValue;
 	private int mFlameDirection;
+	private int mFlameBearing;
+	private int mFlamePeak;    // Interpolated maximum value.
+
+	// Snapshot mode, off while mSamples is 0.
+	private int mSamples;      // Samples taken of each sensor by every scan.
+	private int mFilter;
+	private int[][] mHistory;  // Ring buffer of the last samples of each sensor.
+	private int mNext;         // Next position to write in the ring buffers.
+	private int[] mSorted;     // Scratch array to find the median.
+	private int[] mAverage;    // Exponential moving average of each sensor, scaled by 2^EMA_SCALE.
+	private int[] mFrame;      // Filtered values of the sensors, all from the same scan.
+	private boolean mFilled;
+
+	private int[] mValues = new int[5]; // Values used by the last scan.
 
 	public NewWayFlameSensor(AnalogInput sensors[], int isPresentLimit, int isNearLimit) {
 		mSensors = sensors;
@@ -18,13 +43,31 @@ public class NewWayFlameSensor implements FlameSensor {
 		mFlameDirection = -1;
 	}
 
+	public void setSnapshot(int samples, int filter) {
+		// Turns on the snapshot mode: every scan takes the given number of samples of
+		// each sensor in one batch and filters them. The direction and getSensor() then
+		// use the filtered values of that scan only, without sampling again.
+		mSamples = samples;
+		mFilter = filter;
+		mHistory = new int[mSensors.length][samples];
+		mSorted = new int[samples];
+		mAverage = new int[mSensors.length];
+		mFrame = new int[mSensors.length];
+		mNext = 0;
+		mFilled = false;
+	}
+
 	public int scan() {
 		// Calculates the maximum value of the sensor and the correspondent
 		// direction of the flame.
+		if (mSamples > 0)
+			snapshot();
+
 		mFlameValue = 0;
 		int v = 0;
 		for (int i = 0; i < 5; i++) {
-			v = mSensors[i].sample();
+			v = (mSamples > 0 ? mFrame[i] : mSensors[i].sample());
+			mValues[i] = v;
 			if (v > mFlameValue) {
 				mFlameValue = v;
 				mFlameDirection = i + 1;
@@ -33,14 +76,31 @@ public class NewWayFlameSensor implements FlameSensor {
 
 		if (mFlameValue < mIsPresentLimit)
 			mFlameDirection = -1; // Flame is not present so returns -1.
-		
-		//Idea for the mIsNearLimit
-		//else if (mFlameValue > mIsNearLimit && mFlameDirection == 3)
-		//mFlameDirection = 0; // Flame is present and near so return 0;
+		else
+			interpolate(mFlameDirection - 1);
 
 		return mFlameDirection;
 	}
 
+	private void interpolate(int peak) {
+		// Fits a parabola through the strongest sensor and its neighbours, so the bearing
+		// falls between the sensors instead of on one of five, and the peak value no
+		// longer drops when the flame is between two sensors. At the outer sensors there
+		// is one neighbour only, and their own bearing and value are used.
+		mFlameBearing = BEARINGS[peak];
+		mFlamePeak = mFlameValue;
+		if (peak == 0 || peak == 4)
+			return;
+		int previous = mValues[peak - 1];
+		int next = mValues[peak + 1];
+		int curvature = previous - 2 * mFlameValue + next;
+		if (curvature >= 0)
+			return; // Flat, no maximum to find.
+		int offset = ((previous - next) << 9) / curvature; // Towards the next sensor, in Q10 of a sensor.
+		mFlameBearing += (offset * (BEARINGS[1] - BEARINGS[0])) >> 10;
+		mFlamePeak -= ((previous - next) * offset) >> 12;
+	}
+
 	public int getDirection() {
 		// Get the last known direction of the flame.
 		return mFlameDirection;
@@ -51,8 +111,66 @@ public class NewWayFlameSensor implements FlameSensor {
 		return mFlameValue;
 	}
 
+	public int getBearing() {
+		// Get the bearing of the flame found by the last scan that found one.
+		return mFlameBearing;
+	}
+
+	public int getProximity() {
+		// Get the interpolated maximum value as a percentage of the near limit, at most 100.
+		if (mFlamePeak >= mIsNearLimit)
+			return 100;
+		return mFlamePeak * 100 / mIsNearLimit;
+	}
+
+	public int getEnergy() {
+		// Get the sum of the values of the last scan, the flame seen by any of the sensors.
+		int energy = 0;
+		for (int i = 0; i < 5; i++)
+			energy += mValues[i];
+		return energy;
+	}
+
 	public int getSensor(int i) {
-		//Get analog value of sensor i.
+		//Get analog value of sensor i, the filtered value of the last scan in snapshot mode.
+		if (mSamples > 0)
+			return mFrame[i];
 		return mSensors[i].sample();
 	}
+
+	private void snapshot() {
+		// The sensors are sampled in turn on each pass, so every sensor sees the flame
+		// over the same period of time.
+		int n = mSensors.length;
+		for (int k = 0; k < mSamples; k++) {
+			for (int i = 0; i < n; i++) {
+				int v = mSensors[i].sample();
+				mHistory[i][mNext] = v;
+				if (!mFilled && k == 0)
+					mAverage[i] = v << EMA_SCALE; // The first sample starts the average.
+				else
+					mAverage[i] += ((v << EMA_SCALE) - mAverage[i]) >> EMA_SHIFT;
+			}
+			mNext = (mNext + 1) % mSamples;
+		}
+		mFilled = true;
+
+		for (int i = 0; i < n; i++)
+			mFrame[i] = (mFilter == EXPONENTIAL ? mAverage[i] >> EMA_SCALE : median(mHistory[i]));
+	}
+
+	private int median(int[] history) {
+		// Insertion sort, the history is only a few samples long.
+		int n = history.length;
+		for (int i = 0; i < n; i++) {
+			int v = history[i];
+			int j = i;
+			while (j > 0 && mSorted[j - 1] > v) {
+				mSorted[j] = mSorted[j - 1];
+				j--;
+			}
+			mSorted[j] = v;
+		}
+		return mSorted[n / 2];
+	}
 }
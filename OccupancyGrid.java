@@ -0,0 +1,122 @@
+import java.io.PrintStream;
+
+public class OccupancyGrid {
+
+	// Map of the arena seen by the sonars, as a square grid of cells centred on the
+	// start. Each cell holds a 4-bit count, packed eight to an int: echoes raise it,
+	// rays that pass through lower it, and UNKNOWN is where it starts. A ray only
+	// walks the cells it crosses, so a reading costs at most a few dozen cells.
+
+	public static final int UNKNOWN = 8;   // Count of a cell never seen.
+	private static final int MAX = 15;
+	private static final int HIT = 3;      // Rise of the count of a cell with an echo.
+	private static final int MISS = 1;     // Fall of the count of a cell a ray passes through.
+
+	private int mSize;     // Cells on each side, a multiple of 8.
+	private int mCell;     // Side of a cell (mm).
+	private int mRange;    // Longest distance mapped (mm), the echoes beyond are not trusted.
+	private int mWords;    // Ints in a row.
+	private int[] mCells;
+
+	public OccupancyGrid(int size, int cell, int range) {
+		mSize = size;
+		mCell = cell;
+		mRange = range;
+		mWords = size >> 3;
+		mCells = new int[mWords * size];
+		for (int i = 0; i < mCells.length; i++)
+			mCells[i] = 0x88888888; // UNKNOWN in every cell.
+	}
+
+	public void addRay(int x, int y, int heading, int distance) {
+		// Adds a sonar reading taken from (x, y) mm towards heading (millidegrees): the
+		// cells up to distance (mm) are free and the one at distance has an echo. A
+		// distance of range or more only frees the cells up to range.
+		boolean hit = distance < mRange;
+		if (!hit)
+			distance = mRange;
+		int cx = x + ((distance * Trig.cos(heading)) >> 12);
+		int cy = y + ((distance * Trig.sin(heading)) >> 12);
+
+		// Bresenham from the cell of the robot to the cell of the echo.
+		int x0 = column(x);
+		int y0 = column(y);
+		int x1 = column(cx);
+		int y1 = column(cy);
+		int dx = (x1 > x0 ? x1 - x0 : x0 - x1);
+		int dy = (y1 > y0 ? y1 - y0 : y0 - y1);
+		int sx = (x1 > x0 ? 1 : -1);
+		int sy = (y1 > y0 ? 1 : -1);
+		int error = dx - dy;
+		while (x0 != x1 || y0 != y1) {
+			change(x0, y0, -MISS);
+			int e2 = error << 1;
+			if (e2 > -dy) {
+				error -= dy;
+				x0 += sx;
+			}
+			if (e2 < dx) {
+				error += dx;
+				y0 += sy;
+			}
+		}
+		if (hit)
+			change(x1, y1, HIT);
+	}
+
+	public int get(int x, int y) {
+		// Count of the cell at (x, y) mm, UNKNOWN outside of the grid.
+		return count(column(x), column(y));
+	}
+
+	public int getFreeDistance(int x, int y, int heading, int max) {
+		// Distance (mm) from (x, y) mm towards heading over which every cell is known to
+		// be free, up to max. Walks the ray a cell at a time.
+		int cos = Trig.cos(heading);
+		int sin = Trig.sin(heading);
+		for (int d = mCell; d <= max; d += mCell) {
+			if (count(column(x + ((d * cos) >> 12)), column(y + ((d * sin) >> 12))) >= UNKNOWN)
+				return d - mCell;
+		}
+		return max;
+	}
+
+	private int column(int position) {
+		// Index of the cell of a position (mm) along either axis.
+		int c = position / mCell + (mSize >> 1);
+		return (position < 0 && position % mCell != 0 ? c - 1 : c); // Rounded down.
+	}
+
+	private int count(int column, int row) {
+		if (column < 0 || column >= mSize || row < 0 || row >= mSize)
+			return UNKNOWN;
+		return (mCells[row * mWords + (column >> 3)] >>> ((column & 7) << 2)) & 0xF;
+	}
+
+	private void change(int column, int row, int step) {
+		if (column < 0 || column >= mSize || row < 0 || row >= mSize)
+			return;
+		int i = row * mWords + (column >> 3);
+		int shift = (column & 7) << 2;
+		int c = ((mCells[i] >>> shift) & 0xF) + step;
+		if (c < 0)
+			c = 0;
+		else if (c > MAX)
+			c = MAX;
+		mCells[i] = (mCells[i] & ~(0xF << shift)) | (c << shift);
+	}
+
+	public void print(PrintStream out) {
+		// Prints the grid, with the start in the centre and x to the right: '#' for
+		// cells with echoes, '.' for free cells and ' ' for cells never seen.
+		StringBuffer sb = new StringBuffer(mSize);
+		for (int row = mSize - 1; row >= 0; row--) {
+			sb.setLength(0);
+			for (int column = 0; column < mSize; column++) {
+				int c = count(column, row);
+				sb.append(c > UNKNOWN ? '#' : (c < UNKNOWN ? '.' : ' '));
+			}
+			out.println(sb.toString());
+		}
+	}
+}
@@ -0,0 +1,156 @@
+import com.ridgesoft.robotics.Motor;
+
+public class PoseEstimator {
+
+	// Estimates the pose of the robot by dead reckoning from the powers given to the
+	// wheels, and squares the heading up to the nearest multiple of 90 degrees after
+	// driving straight along a wall, since the walls of the arena are all square.
+	// Headings are in millidegrees, counterclockwise, and are not wrapped around.
+	// Positions are in mm from the start, with x along the heading at the start.
+
+	// Rate of turn for each step of difference between the servo offsets of the wheels,
+	// in millidegrees per ms and Q8: 16.7, that is 7.5 ms per degree at ROTATE_POWER 5.
+	private static final int RATE = 4267;
+	// Speed of a wheel for each step of its servo offset, in mm per ms and Q12: 0.0407.
+	private static final int SPEED = 167;
+	private static final int MAX_INTERVAL = 100;    // Longest interval integrated at once (ms).
+
+	private static final int SQUARE_TIME = 1000;    // Time to drive straight along a wall to square up (ms).
+	private static final int SQUARE_TOLERANCE = 10; // Largest change of the distance to the wall meanwhile (mm).
+	private static final int SQUARE_RANGE = 600;    // Largest distance to the wall to square up (mm).
+
+	private int mRange;
+	private SonarSampler mSonars;
+	private int mLeftSonar;
+	private int mRightSonar;
+
+	private int mLeftPower;
+	private int mRightPower;
+	private int mHeading;
+	private int mX;          // Position in Q12 mm.
+	private int mY;
+	private int mTravelled;  // Distance travelled, forwards or backwards, in Q12 mm.
+	private long mLast = -1;
+
+	// Distances to the walls since the robot drives straight, to square up.
+	private long mStraightSince = -1;
+	private int mLeftMin, mLeftMax;
+	private int mRightMin, mRightMax;
+
+	public PoseEstimator(int range, SonarSampler sonars, int leftSonar, int rightSonar) {
+		mRange = range;          // Range of the servos of the wheels, as in ContinuousRotationServo.
+		mSonars = sonars;
+		mLeftSonar = leftSonar;  // Sonars that look at the side walls.
+		mRightSonar = rightSonar;
+	}
+
+	public void update(long now) {
+		// Integrates the turn since the last update with the powers given meanwhile.
+		// Called on every tick.
+		if (mLast >= 0) {
+			int dt = (int) (now - mLast);
+			if (dt > MAX_INTERVAL)
+				dt = MAX_INTERVAL;
+			int left = offset(mLeftPower);
+			int right = offset(mRightPower);
+			int distance = ((left + right) * SPEED * dt) >> 1; // Q12 mm, at the heading before the turn.
+			mX += (distance * Trig.cos(mHeading)) >> 12;
+			mY += (distance * Trig.sin(mHeading)) >> 12;
+			mTravelled += (distance >= 0 ? distance : -distance);
+			mHeading += ((right - left) * RATE * dt) >> 8;
+		}
+		mLast = now;
+
+		if (mLeftPower != mRightPower || mLeftPower <= 0) {
+			mStraightSince = -1;
+			return;
+		}
+		int left = mSonars.getDistanceMm(mLeftSonar);
+		int right = mSonars.getDistanceMm(mRightSonar);
+		if (mStraightSince < 0) {
+			mStraightSince = now;
+			mLeftMin = mLeftMax = left;
+			mRightMin = mRightMax = right;
+			return;
+		}
+		if (left < mLeftMin)
+			mLeftMin = left;
+		else if (left > mLeftMax)
+			mLeftMax = left;
+		if (right < mRightMin)
+			mRightMin = right;
+		else if (right > mRightMax)
+			mRightMax = right;
+
+		if (now - mStraightSince >= SQUARE_TIME) {
+			if ((mLeftMax <= SQUARE_RANGE && mLeftMax - mLeftMin <= SQUARE_TOLERANCE)
+					|| (mRightMax <= SQUARE_RANGE && mRightMax - mRightMin <= SQUARE_TOLERANCE))
+				mHeading = square(mHeading);
+			mStraightSince = -1; // Start over, so the walls are looked at again.
+		}
+	}
+
+	public int getHeading() {
+		return mHeading;
+	}
+
+	public int getX() {
+		// Position along the heading at the start (mm).
+		return mX >> 12;
+	}
+
+	public int getY() {
+		// Position to the left of the heading at the start (mm).
+		return mY >> 12;
+	}
+
+	public int getTravelled() {
+		// Distance travelled since the start, forwards or backwards (mm).
+		return mTravelled >> 12;
+	}
+
+	private int offset(int power) {
+		// Offset of the servo from neutral, which sets the speed of the wheel.
+		if (power > Motor.MAX_FORWARD)
+			power = Motor.MAX_FORWARD;
+		else if (power < Motor.MAX_REVERSE)
+			power = Motor.MAX_REVERSE;
+		return (power * mRange) / Motor.MAX_FORWARD;
+	}
+
+	private static int square(int heading) {
+		// Nearest multiple of 90 degrees.
+		int q = (heading >= 0 ? (heading + 45000) / 90000 : (heading - 45000) / 90000);
+		return q * 90000;
+	}
+
+	// ================================================================================
+	// Watched motors, wrapped around the wheels when the robot starts.
+	// ================================================================================
+
+	public Motor watch(final Motor motor, final boolean right) {
+		return new Motor() {
+			public void setPower(int power) {
+				keep(power);
+				motor.setPower(power);
+			}
+
+			public void brake() {
+				keep(0); // Without setPower(0), which would turn the servo off first.
+				motor.brake();
+			}
+
+			public void stop() {
+				keep(0);
+				motor.stop();
+			}
+
+			private void keep(int power) {
+				if (right)
+					mRightPower = power;
+				else
+					mLeftPower = power;
+			}
+		};
+	}
+}
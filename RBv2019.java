@@ -1,9 +1,9 @@
 import com.ridgesoft.intellibrain.IntelliBrain;
-import com.ridgesoft.intellibrain.IntelliBrainDigitalIO;
 import com.ridgesoft.io.Display;
 import com.ridgesoft.robotics.AnalogInput;
 import com.ridgesoft.robotics.Motor;
 import com.ridgesoft.robotics.RangeFinder;
+import com.ridgesoft.robotics.Servo;
 import com.ridgesoft.robotics.sensors.ParallaxPing;
 
 public class RBv2019 {
@@ -22,71 +22,236 @@ public class RBv2019 {
 	private static final int NAVIGATE_BACK = 6;
 	private static final int RETURN_Q3 = 7;
 	private static final int RETURN_Q4 = 8;
+	private static final int ENTER_ROOM = 9; // Decide whether the candle is in the room just entered.
+	private static final int SWEEP = 10; // Turn once in place to find the direction of the flame.
+	private static final int MANEUVER = 11; // Not a state, the ticks spent advancing a maneuver in the statistics.
+
+	// Names of the states in the statistics of the loop.
+	private static final String[] STATE_NAMES = { "WAIT", "NAV RIGHT", "CENTER", "PUT OUT", "RETURN",
+			"NAV LEFT", "NAV BACK", "RETURN Q3", "RETURN Q4", "ENTER ROOM", "SWEEP",
+			"MANEUVER" };
 	
 	
 	// Possible types of floor tags.
-	private static final int LINE_TAG = 0;
-	private static final int CIRCLE_TAG = 1;
-	private static final int NO_TAG = 2;
+	private static final int LINE_TAG = FloorTagClassifier.LINE_TAG;
+	private static final int CIRCLE_TAG = FloorTagClassifier.CIRCLE_TAG;
+	private static final int NO_TAG = FloorTagClassifier.NO_TAG;
+
+	// Places of the arena, joined by the legs of the route table.
+	private static final int HOME = 0;
+	private static final int ROOM_1 = 1; // The rooms, in the order they are searched.
+	private static final int ROOM_2 = 2;
+	private static final int ROOM_3 = 3;
+	private static final int ROOM_4 = 4;
+	private static final int PLACES = 5;
+
+	// Sonars, in the order they are pinged by the sonar sampler.
+	private static final int LEFT_SONAR = 0;
+	private static final int FRONT_SONAR = 1;
+	private static final int RIGHT_SONAR = 2;
+	private static final int[] SONAR_ANGLES = { 90000, 0, -90000 }; // Relative to the heading (millidegrees).
 
 	// Version
 	private static final String VERSION = "RB2019";
 
+	// The tunable values are not final so that they can be set by the tuner of the
+	// simulator. They are still never changed by the robot itself.
+
 	// Predefined velocities.
-	private static final int BASE_POWER = 9; // Base power to move.
-	private static final int ROTATE_POWER = 5; // Base power to rotate.
+	static int BASE_POWER = 9; // Base power to move.
+	static int ROTATE_POWER = 5; // Base power to rotate.
+	static int TURN_POWER = 10; // Power to turn to a heading, down to ROTATE_POWER near it.
 
 	// Other constants used in the algorithms.
-	private static final float ANGLE_TO_TIME_FACTOR = 7.5f; // Factor used by the rotateAngle()
-
-	private static final int MIN_DISTANCE_FRONT = 16; // Minimum distance to front wall.
-	private static final int MIN_DISTANCE_RIGHT = 16; // Minimum distance to right wall.
-	private static final int MIN_DISTANCE_LEFT = 16;
+	private static final int ANGLE_TO_TIME_FACTOR = 15; // Time to rotate one degree (ms), in Q1 that is 7.5 ms.
+	private static final int TURN_SLOW_ZONE = 30000; // Angle before the heading at which turns slow down (millidegrees).
+	private static final int TURN_TOLERANCE = 1000; // Error of the heading at which turns end (millidegrees).
+
+	private static final int PING_INTERVAL = 15; // Time between the pings of consecutive sonars (ms).
+	private static final int TICK_PERIOD = 10; // Period of the control loop (ms).
+	private static final int WATCH_INTERVAL = 5; // Time between polls of the bumpers and the stop button (ms).
+	private static final int TICK_DEADLINE = TICK_PERIOD; // Time after its tick by which an iteration must end (ms).
+	private static final int STALL_LIMIT = 100; // Time without an iteration ending after which the wheels are braked (ms).
+	private static final int WATCHDOG_INTERVAL = 20; // Time between looks of the watchdog at the control loop (ms).
+	private static final int LINE_INTERVAL = 5; // Time between samples of the line sensor (ms).
+	private static final int CIRCLE_CHORD = 150; // Shortest run of white that is the circle, half across it (mm).
+	private static final int LINE_SENSOR_OFFSET = 80; // Distance from the center of the robot to the line sensor (mm).
+	private static final int FLAME_SAMPLES = 3; // Samples of each flame sensor per scan, filtered by their median.
+	private static final int TELEMETRY_FRAMES = 500; // Frames kept on the robot, the last 5 s.
+	private static final int DISPLAY_PERIOD = 100; // Minimum time between two refreshes of the LCD (ms).
+	private static final int MAX_STEPS = 8; // Maximum number of steps of a maneuver.
+	static final int WHEEL_RANGE = 14; // Range of the wheel servos above and below neutral.
+	static final int WHEEL_RAMP = 0; // Maximum change of the power of the wheels per tick, 0 for no limit.
+	private static final int MAP_SIZE = 128; // Cells on each side of the map, twice the arena from any start.
+	private static final int MAP_CELL = 40; // Side of a cell of the map (mm).
+	private static final int MAP_RANGE = 1000; // Longest sonar distance mapped, from the centre (mm).
+	private static final int MAP_CLEAR = 600; // Free space the map must show ahead to drive faster home (mm).
+	private static final int RETURN_POWER = 11; // Power to follow a wall home where the map shows it clear.
+	private static final int SONAR_OFFSET = 100; // Distance from the centre of the robot to the sonars (mm).
+
+	static int MIN_DISTANCE_FRONT = 16; // Minimum distance to front wall.
+	static int MIN_DISTANCE_RIGHT = 16; // Minimum distance to right wall.
+	static int MIN_DISTANCE_LEFT = 16;
 	
-	private static final float GAIN = 0.9f; // Gain of the proportional control.
-	private static final int DELTA_LIMITE = 5; // Delta limit of the proportional control.
+	static float GAIN = 0.9f; // Gain of the proportional control.
+	static int DELTA_LIMITE = 5; // Delta limit of the proportional control.
 
-	private static final int LINE_LIMIT = 100; // Limit to detect the white lines.
+	static int LINE_LIMIT = 100; // Limit to detect the white lines.
 
-	private static final int IS_PRESENT_LIMIT = 300; // Limit to detect the flame.
+	static int IS_PRESENT_LIMIT = 300; // Limit to detect the flame.
 	private static final int IS_NEAR_LIMITE = 1000; // Limit to consider is near the flame.
 
+	// Approach to the flame, see centerState().
+	private static final int CENTER_POWER = 8; // Power to move towards the flame.
+	private static final int CENTER_NEAR_POWER = 6; // Power once the flame is near.
+	private static final int CENTER_GAIN = 5000; // Bearing for each step of delta (millidegrees).
+	private static final int CENTER_TURN_LIMIT = 45000; // Bearing beyond which the robot turns in place.
+	private static final int CENTER_AHEAD = 15000; // Bearing within which the flame is ahead.
+	private static final int CENTER_NEAR = 90; // Proximity (%) at which the flame is near.
+	private static final int CENTER_NEAR_TIME = 1500; // Time to keep moving once the flame is near (ms).
+	private static final int TRACK_ALPHA = 128; // Gain of the direction of the flame tracker, 0.5 in Q8.
+	private static final int TRACK_BETA = 32; // Gain of the rate of the flame tracker, 0.125 in Q8.
+	private static final int TRACK_GAP = 500; // Time without seeing the flame before it is lost (ms).
+
+	// Check of the rooms for the flame, see checkRoom().
+	private static final int ROOM_CHECK_TIME = 500; // Time driving into the room while looking (ms).
+	private static final int ROOM_UV_WEIGHT = 60; // Share of the UVTron in the confidence (%).
+	private static final int ROOM_ENERGY_FLOOR = 250; // Energy of the flame sensors without the flame.
+	private static final int ROOM_ENERGY_FULL = 1000; // Energy of the flame sensors sure of the flame.
+	private static final int ROOM_CONFIDENCE = 30; // Confidence (%) from which the flame is in the room.
+	private static final int SWEEP_BINS = 36; // Directions told apart by the flame sweep, 10 degrees each.
+	private static final int SWEEP_MIN = 60; // Lowest value of the peak of the sweep taken for the flame.
+	private static final int SWEEP_APPROACH_TIME = 3000; // Longest move towards a peak too far to track (ms).
+
 	// ================================================================================
 	// Objects and other variables.
 	// ================================================================================
 
-	private static Motor mLeftMotor;
-	private static Motor mRightMotor;
+	// The hardware is package-private so that it can also be provided by the simulator.
+	static Motor mLeftMotor;
+	static Motor mRightMotor;
 
-	private static RangeFinder mLeftSonar;
-	private static RangeFinder mFrontSonar;
-	private static RangeFinder mRightSonar;
+	static RangeFinder mLeftSonar;
+	static RangeFinder mFrontSonar;
+	static RangeFinder mRightSonar;
+	private static SonarSampler mSonars;
 
-	private static Display mLcd;
+	static Display mLcd;
 
-	private static IntelliBrainDigitalIO mLeftBumper;
-	private static IntelliBrainDigitalIO mRightBumper;
+	static DigitalPort mLeftBumper;
+	static DigitalPort mRightBumper;
 
-	private static AnalogInput mLineSensor;
-	private static int mTotalLines;
+	static AnalogInput mLineSensor;
 
-	private static IntelliBrainDigitalIO mStartButton;
+	static DigitalPort mStartButton;
 
-	private static IntelliBrainDigitalIO mStopButton;
+	static DigitalPort mStopButton;
 
-	private static AnalogInput[] mAnalogSensors;
+	static AnalogInput[] mAnalogSensors;
 	private static FlameSensor mFlameSensor;
-	private static boolean mFlame;
 	private static boolean mFlameInRoom;
-	private static int mRoom;
+	private static int mRoom;      // Place reached last.
+	private static int mGoal;      // Place the robot is heading to.
+	private static int mLegTo;     // Place at the end of the current leg.
 
-	private static Motor mFan;
+	static Motor mFan;
 
-	private static IntelliBrainDigitalIO mFlameLED;
+	static DigitalPort mFlameLED;
 
-	private static AnalogInput mUVTronSensor;
+	static AnalogInput mUVTronSensor;
+
+	static Clock mClock; // All the timing goes through the clock.
+
+	static TelemetryLog mTelemetryLog; // Where the frames of the telemetry go, null to run without it.
+	private static InputSampler mInputs;   // The inputs, sampled in their own thread.
+	private static InputWatcher mWatcher;  // The bumpers and the stop button, watched in their own thread.
+	private static StatusDisplay mStatus;  // The telemetry, and the LCD in its own thread.
+	private static boolean mShowFlame;     // Show the flame on the LCD after this tick.
+	private static volatile boolean mDumping; // The run is being printed, see dumpRun().
 	
-	private static boolean dentroQuarto = true;
+	// Wall followers of the navigation states.
+	private static WallFollower mNavigateRight;
+	private static WallFollower mNavigateLeft;
+	private static WallFollower mNavigateBack;
+	private static WallFollower mReturnQ3;
+	private static WallFollower mReturnQ4;
+	private static RouteTable mRoutes;
+
+	private static Ticker mTicker;
+	static LoopStats mStats;
+	static Watchdog mWatchdog;       // Misses of the deadline, and the brakes if the loop stalls.
+	private static Maneuver mManeuver;
+	private static PoseEstimator mPose;
+	static OccupancyGrid mMap;       // What the sonars have seen so far.
+	private static int mMapped;      // Sonar echoes added to the map.
+	private static int mGain;        // GAIN per mm in Q16, see prepareControl().
+	private static long mNow;        // Time of the current tick.
+	private static long mStateStart; // Time at which the current state was entered.
+	private static FloorTagClassifier mFloorTags;
+	private static int mDriveTo;     // Distance travelled at which to stop in the circle, see driveIntoCircle().
+	private static long mNearSince;  // Time since which the flame is near, see centerState().
+	private static FlameTracker mFlameTracker;
+	private static RoomFlameDetector mRoomFlame;
+	private static FlameSweep mSweep;
+
+	// Handlers of the states, in the order of the state numbers.
+	private static final StateHandler[] STATES = {
+		new StateHandler() { public int handle() { return waitState(); } },
+		new StateHandler() { public int handle() { return followWall(mNavigateRight); } },
+		new StateHandler() { public int handle() { return centerState(); } },
+		new StateHandler() { public int handle() { return putOutState(); } },
+		new StateHandler() { public int handle() { return returnState(); } },
+		new StateHandler() { public int handle() { return followWall(mNavigateLeft); } },
+		new StateHandler() { public int handle() { return followWall(mNavigateBack); } },
+		new StateHandler() { public int handle() { return followWall(mReturnQ3); } },
+		new StateHandler() { public int handle() { return followWall(mReturnQ4); } },
+		new StateHandler() { public int handle() { return enterRoomState(); } },
+		new StateHandler() { public int handle() { return sweepState(); } },
+	};
+
+	// Sensor conditions that end the steps of the maneuvers.
+	private static final Condition RIGHT_WALL_NEAR = new Condition() {
+		public boolean isMet() {
+			return getDistanceMm(RIGHT_SONAR) <= 200;
+		}
+	};
+
+	private static final Condition OUT_OF_CIRCLE = new Condition() {
+		public boolean isMet() {
+			return mLineSensor.sample() >= LINE_LIMIT;
+		}
+	};
+
+	private static final Condition ON_CIRCLE = new Condition() {
+		public boolean isMet() {
+			return mLineSensor.sample() < LINE_LIMIT;
+		}
+	};
+
+	private static final Condition WALL_NEAR = new Condition() {
+		public boolean isMet() {
+			return (getDistanceMm(FRONT_SONAR) <= MIN_DISTANCE_FRONT * 10)
+					|| (getDistanceMm(RIGHT_SONAR) <= MIN_DISTANCE_RIGHT * 10);
+		}
+	};
+
+	private static final Condition FLAME_SEEN = new Condition() {
+		public boolean isMet() {
+			return mFlameSensor.scan() > 0 || getDistanceMm(FRONT_SONAR) <= 150;
+		}
+	};
+
+	private static final Condition FRONT_WALL_NEAR = new Condition() {
+		public boolean isMet() {
+			return getDistanceMm(FRONT_SONAR) <= 150;
+		}
+	};
+
+	private static final Condition DRIVEN_IN = new Condition() {
+		public boolean isMet() {
+			return mPose.getTravelled() >= mDriveTo || mLineSensor.sample() >= LINE_LIMIT;
+		}
+	};
 
 	public static void main(String[] args) {
 
@@ -94,8 +259,12 @@ public class RBv2019 {
 		// Creation of the objects.
 		// ================================================================================
 
-		mLeftMotor = new ContinuousRotationServo(IntelliBrain.getServo(1), false, 14);
-		mRightMotor = new ContinuousRotationServo(IntelliBrain.getServo(2), true, 14);
+		ContinuousRotationServo leftServo = new ContinuousRotationServo(IntelliBrain.getServo(1), false, WHEEL_RANGE);
+		ContinuousRotationServo rightServo = new ContinuousRotationServo(IntelliBrain.getServo(2), true, WHEEL_RANGE);
+		leftServo.setRamp(WHEEL_RAMP);
+		rightServo.setRamp(WHEEL_RAMP);
+		mLeftMotor = leftServo;
+		mRightMotor = rightServo;
 
 		mLeftSonar = new ParallaxPing(IntelliBrain.getDigitalIO(3));
 		mFrontSonar = new ParallaxPing(IntelliBrain.getDigitalIO(4));
@@ -103,18 +272,14 @@ public class RBv2019 {
 
 		mLcd = IntelliBrain.getLcdDisplay();
 
-		mLeftBumper = IntelliBrain.getDigitalIO(1);
-		mLeftBumper.setPullUp(true);
-		mRightBumper = IntelliBrain.getDigitalIO(10);
-		mRightBumper.setPullUp(true);
+		mLeftBumper = new IntelliBrainPort(IntelliBrain.getDigitalIO(1), true, false);
+		mRightBumper = new IntelliBrainPort(IntelliBrain.getDigitalIO(10), true, false);
 
 		mLineSensor = IntelliBrain.getAnalogInput(7);
 
-		mStartButton = IntelliBrain.getDigitalIO(12);
-		mStartButton.setPullUp(true);
+		mStartButton = new IntelliBrainPort(IntelliBrain.getDigitalIO(12), true, false);
 
-		mStopButton = IntelliBrain.getDigitalIO(11);
-		mStopButton.setPullUp(true);
+		mStopButton = new IntelliBrainPort(IntelliBrain.getDigitalIO(11), true, false);
 
 		mAnalogSensors = new AnalogInput[5];
 		mAnalogSensors[0] = IntelliBrain.getAnalogInput(1);
@@ -122,353 +287,299 @@ public class RBv2019 {
 		mAnalogSensors[2] = IntelliBrain.getAnalogInput(3);
 		mAnalogSensors[3] = IntelliBrain.getAnalogInput(4);
 		mAnalogSensors[4] = IntelliBrain.getAnalogInput(5);
-		mFlameSensor = new NewWayFlameSensor(mAnalogSensors, IS_PRESENT_LIMIT, IS_NEAR_LIMITE);
 
 		mFan = IntelliBrain.getMotor(2);
 
-		mFlameLED = IntelliBrain.getDigitalIO(13);
-		mFlameLED.setDirection(true);
+		mFlameLED = new IntelliBrainPort(IntelliBrain.getDigitalIO(13), false, true);
 
 		mUVTronSensor = IntelliBrain.getAnalogInput(6);
-	
+
+		mClock = new WallClock();
+
+		mTelemetryLog = new RingLog(TELEMETRY_FRAMES, Telemetry.FRAME_SIZE);
+
+		run();
+	}
+
+	static void run() {
+		// Runs the robot on the hardware set in the fields above.
+		// The pings, the samples and the sleeps of the control loop are counted for the
+		// statistics of the loop. The floor tags sample the line sensor in a thread of
+		// their own, through a count of their own.
+		mStats = new LoopStats(STATE_NAMES, mClock);
+		AnalogInput lineSensor = mStats.count(mLineSensor);
+		mLineSensor = mStats.count(mLineSensor);
+		mUVTronSensor = mStats.count(mUVTronSensor);
+		AnalogInput[] flameInputs = new AnalogInput[mAnalogSensors.length];
+		for (int i = 0; i < flameInputs.length; i++)
+			flameInputs[i] = mStats.count(mAnalogSensors[i]);
+
+		mSonars = new SonarSampler(new RangeFinder[] { mStats.count(mLeftSonar), mStats.count(mFrontSonar),
+				mStats.count(mRightSonar) }, PING_INTERVAL, mClock);
+		mSonars.start();
+
+		NewWayFlameSensor flameSensor = new NewWayFlameSensor(flameInputs, IS_PRESENT_LIMIT, IS_NEAR_LIMITE);
+		flameSensor.setSnapshot(FLAME_SAMPLES, NewWayFlameSensor.MEDIAN);
+
+		// The bumpers and the stop button are watched above everything else, so that a
+		// contact cancels the maneuver in progress at the next tick, see checkBumpers().
+		mWatcher = new InputWatcher(mLeftBumper, mRightBumper, mStopButton, mClock, WATCH_INTERVAL);
+		mWatcher.start();
+
+		// The inputs are sampled by a thread of their own. The state machine only sees
+		// what it published, through views that stand in for the devices, so no tick
+		// waits for a conversion. The floor tags keep the line sensor itself.
+		mInputs = new InputSampler(flameSensor, mUVTronSensor, mLineSensor, new DigitalPort[] { mLeftBumper,
+				mRightBumper, mStartButton, mStopButton }, mSonars, mClock, TICK_PERIOD);
+		mInputs.start();
+		mFlameSensor = mInputs.getFlameSensor();
+		mUVTronSensor = mInputs.getInput(InputSampler.UVTRON);
+		mLineSensor = mInputs.getInput(InputSampler.LINE);
+		mStartButton = mInputs.getPort(InputSampler.START_BUTTON);
+
+		// The telemetry is recorded as the loop publishes its status at the end of each
+		// tick, and the LCD is left to a thread below the control loop, which shows it.
+		String[] titles = new String[STATE_NAMES.length];
+		System.arraycopy(STATE_NAMES, 0, titles, 0, titles.length);
+		titles[WAIT] = VERSION;
+		mStatus = new StatusDisplay(new LcdBuffer(mLcd, DISPLAY_PERIOD),
+				(mTelemetryLog != null ? new Telemetry(mTelemetryLog) : null), titles, IS_PRESENT_LIMIT, mClock,
+				TICK_PERIOD);
+		Servo leftWheel = servoOf(mLeftMotor); // Braked directly by the watchdog.
+		Servo rightWheel = servoOf(mRightMotor);
+		mLeftMotor = mStatus.watch(mLeftMotor, Telemetry.LEFT_MOTOR);
+		mRightMotor = mStatus.watch(mRightMotor, Telemetry.RIGHT_MOTOR);
+		mFan = mStatus.watch(mFan, Telemetry.FAN);
+
+		// The pose is estimated from the powers given to the wheels.
+		mPose = new PoseEstimator(WHEEL_RANGE, mSonars, LEFT_SONAR, RIGHT_SONAR);
+		mLeftMotor = mPose.watch(mLeftMotor, false);
+		mRightMotor = mPose.watch(mRightMotor, true);
+		mMap = new OccupancyGrid(MAP_SIZE, MAP_CELL, MAP_RANGE);
+		mFlameTracker = new FlameTracker(mPose, TRACK_ALPHA, TRACK_BETA, TRACK_GAP);
+		mRoomFlame = new RoomFlameDetector(ROOM_CHECK_TIME / TICK_PERIOD, ROOM_UV_WEIGHT, ROOM_ENERGY_FLOOR,
+				ROOM_ENERGY_FULL);
+		mSweep = new FlameSweep(NewWayFlameSensor.BEARINGS, SWEEP_BINS);
+		mFloorTags = new FloorTagClassifier(lineSensor, mPose, mClock, LINE_LIMIT, LINE_INTERVAL, CIRCLE_CHORD);
+		mFloorTags.start();
+		mMapped = mInputs.get(InputSampler.SONAR_COUNT);
+
+		// The tunable values are read once here, by the wall followers and the control.
+		prepareControl();
+		mNavigateRight = new WallFollower(NAVIGATE_RIGHT, RIGHT_SONAR, true, MIN_DISTANCE_RIGHT * 10, MIN_DISTANCE_FRONT * 10,
+				WallFollower.ENTER_ROOM, true);
+		mNavigateLeft = new WallFollower(NAVIGATE_LEFT, LEFT_SONAR, false, MIN_DISTANCE_LEFT * 10, MIN_DISTANCE_FRONT * 10,
+				WallFollower.IGNORE_LINE, false);
+		mNavigateBack = new WallFollower(NAVIGATE_BACK, RIGHT_SONAR, true, MIN_DISTANCE_RIGHT * 10, MIN_DISTANCE_FRONT * 10,
+				WallFollower.CROSS_AND_TURN, false);
+		mReturnQ3 = new WallFollower(RETURN_Q3, RIGHT_SONAR, true, MIN_DISTANCE_RIGHT * 10, MIN_DISTANCE_FRONT * 10,
+				WallFollower.IGNORE_LINE, false);
+		mReturnQ4 = new WallFollower(RETURN_Q4, RIGHT_SONAR, true, MIN_DISTANCE_RIGHT * 10, MIN_DISTANCE_FRONT * 10,
+				WallFollower.IGNORE_LINE, false);
+
+		// The legs between the places, with their lengths in the standard arena (cm).
+		// Leaving a room to search the next one means turning back out of it, then right
+		// to find the wall again, with the doors where the right wall leads straight in.
+		mRoutes = new RouteTable(PLACES);
+		mRoutes.addLeg(HOME, ROOM_1, 80, new Leg(0, BASE_POWER, 0, 1000, OUT_OF_CIRCLE, mNavigateRight));
+		mRoutes.addLeg(ROOM_1, ROOM_2, 110, new Leg(180, BASE_POWER, 0, 1000, null, -90, 2000, RIGHT_WALL_NEAR,
+				mNavigateRight));
+		mRoutes.addLeg(ROOM_2, ROOM_3, 150, new Leg(180, BASE_POWER, 0, 1000, null, -90, 2000, RIGHT_WALL_NEAR,
+				mNavigateRight));
+		mRoutes.addLeg(ROOM_3, ROOM_4, 160, new Leg(180, BASE_POWER, 0, 1000, null, -90, 2000, RIGHT_WALL_NEAR,
+				mNavigateRight));
+		mRoutes.addLeg(ROOM_1, HOME, 80, new Leg(0, 0, 0, 0, null, mNavigateLeft));
+		mRoutes.addLeg(ROOM_2, HOME, 190, new Leg(0, 0, 0, 0, null, mNavigateBack));
+		mRoutes.addLeg(ROOM_3, HOME, 200, new Leg(0, 0, 0, 0, null, mReturnQ3));
+		mRoutes.addLeg(ROOM_4, HOME, 120, new Leg(0, 0, 0, 0, null, mReturnQ4));
+		mRoutes.build();
+
+		mStatus.start();
+		mTicker = new Ticker(mStats.count(mClock), TICK_PERIOD);
+		mManeuver = new Maneuver(mLeftMotor, mRightMotor, MAX_STEPS);
+		mManeuver.setTurns(mPose, TURN_POWER, ROTATE_POWER, TURN_SLOW_ZONE, TURN_TOLERANCE);
+		mWatchdog = new Watchdog(leftWheel, rightWheel, STATE_NAMES, mClock, TICK_DEADLINE, STALL_LIMIT,
+				WATCHDOG_INTERVAL);
+		mWatchdog.start();
 
 		// ================================================================================
 		// State Machine.
 		// ================================================================================
+		// Every tick either advances the maneuver in progress or runs the current state,
+		// so the sensors and the stop button are never left unattended.
 		int state = WAIT;
+		int previous = -1;
 		while (true) {
-			switch (state) {
-			case WAIT:
-				state = waitState();
-				break;
-			case NAVIGATE_RIGHT:
-				state = navigateRightState();
-				break;
-			case CENTER:
-				state = centerState();
-				break;
-			case PUT_OUT:
-				state = putOutState();
-				break;
-			case RETURN:
-				state = returnState();
-				break;
-			case NAVIGATE_LEFT:
-				state = navigateLeftState();
-				break;
-			case NAVIGATE_BACK:
-				state = navigateBackState();
-				break;
-			case RETURN_Q3:
-				state = rQuarto3();
-				break;
-			case RETURN_Q4:
-				state = rQuarto4();
-				break;
+			mNow = mTicker.waitNextTick();
+			long start = mClock.millis(); // Later than mNow if the tick is late.
+			mInputs.read(); // The inputs of this tick, the same for every state and condition.
+			int pressed = mWatcher.read(); // Bumpers and stop button pressed since the last tick.
+			mShowFlame = false;
+			mPose.update(mNow);
+			updateMap();
+			if (state == ENTER_ROOM) // Looking for the flame while driving into a room.
+				checkRoom();
+			else if (state == SWEEP) // Scanning all around while turning in place.
+				addSweepScan();
+			if (mWatchdog.takeStall()) { // The servos were braked behind the motors.
+				mLeftMotor.brake();
+				mRightMotor.brake();
+			}
+			state = checkStopButton(state, pressed);
+			state = checkBumpers(state, pressed);
+			int ran;
+			if (mManeuver.isActive()) {
+				mManeuver.step(mNow); // The state machine resumes in state when it finishes.
+				ran = MANEUVER;
+			} else {
+				if (state != previous) {
+					mStateStart = mNow;
+					previous = state;
+				}
+				ran = state;
+				state = dispatch(state);
 			}
 
-			displayState(state);
-			state = checkStopButton(state);
+			// The floor is only looked at while following a wall, not during maneuvers.
+			mFloorTags.setEnabled(!mManeuver.isActive() && followsWall(state));
+			mStats.record(ran, start);
+			mStatus.publish(mNow, state, mManeuver.isActive(), mRoom, mShowFlame, mInputs.getValues());
+			mWatchdog.kick(ran, mNow);
 		}
 	}
 
+	private static Servo servoOf(Motor motor) {
+		// The servo that drives a wheel, null if the wheel is not a servo.
+		return (motor instanceof ContinuousRotationServo ? ((ContinuousRotationServo) motor).getServo() : null);
+	}
+
+	private static int dispatch(int state) {
+		return STATES[state].handle();
+	}
+
+	private static boolean followsWall(int state) {
+		return state == NAVIGATE_RIGHT || state == NAVIGATE_LEFT || state == NAVIGATE_BACK || state == RETURN_Q3
+				|| state == RETURN_Q4;
+	}
+
 	// ================================================================================
 	// Methods to implement the states.
 	// ================================================================================
 
 	private static int waitState() {
-		stop();
-		mLcd.print(0, VERSION);
-		while (mStartButton.isSet()) {
-			// testLineSensor();
+		if (mStateStart == mNow) { // First tick in this state.
+			brake();
+			mFan.setPower(0);
+		}
+		if (mStartButton.isSet()) {
 			mFlameSensor.scan();
-			displayFlameSensorData(1);
+			displayFlameSensorData();
+			return WAIT;
 		}
 
 		// Initializations
-		mTotalLines = 0;
-		mFlame = true;
 		mFlameInRoom = false;
-		mRoom = 0;
+		mRoom = HOME;
+		mGoal = ROOM_1;
+		mLegTo = ROOM_1;
 
 		maneuverToCorrectDirection();
 		maneuverToExitWhiteCircle();
 
 		//return CENTER; 
-		return NAVIGATE_RIGHT;
+		return perform(NAVIGATE_RIGHT);
 	}
 
-	private static int navigateRightState() {
-		// ===== Action of the state =====
-		// Rotate left if wall in front.
-		if (getDistance(mFrontSonar) < MIN_DISTANCE_FRONT)
-			rotateAngle(90);
-
-		checkBumpers(); // Check if bumpers are colliding with something.
-		// countLines();
-		// countLines2(); // Count white lines.
-
-		// Proportional control
-		// float error = (getDistance(mRightSonar) - MIN_DISTANCE_RIGHT);
-		// int delta = (int) (error * GAIN);
-		int delta = (int) ((getDistance(mRightSonar) - MIN_DISTANCE_RIGHT) * GAIN);
-
-		// Limit the delta to solve situation where the error is to big, like in certain
-		// corners.
-		delta = (delta > DELTA_LIMITE ? DELTA_LIMITE : delta);
-
-		// Move the robot proportionally to the error.
-		move(BASE_POWER, delta);
-
-		// ===== Transition conditions of the state =====
-
-		// If at start circle and flame still lit, than go back to go to island room.
-		// Else go to state WAIT.
-
+	private static int followWall(WallFollower f) {
+		// One tick of a state that follows a wall. The floor is looked at first, so a
+		// tag found in the previous ticks is handled before any other maneuver starts.
 		int floorTag = getFloorTag();
-		if (floorTag == CIRCLE_TAG) {
-			if (mFlame == true)
-				maneuverToReturnBack();
-			else
-				return WAIT;
-		} else if (floorTag == LINE_TAG) {
-			stop();
-			wait(1000);
-			mRoom++;
-			if (mUVTronSensor.sample() > 0)
-				mFlameInRoom = true;
-			else
-				maneuverToGoToNextRoom();
-			if (mRoom == 4)
-				mRoom = 3;
-		}
-
-		// If mFlameSensor returns a valid direction, go to state CENTER.
-		// This test should be performed only if the robot is within a room
-		// since there is no flames in the corridors. doing so will prevent
-		// the robot from confusing the reflection of the sun with the flame
-		// while navigating the corridors.
-		if (mFlameInRoom && mFlameSensor.scan() > 0) {
-			mFlameLED.set();
-			return CENTER;
-		}
-
-		return NAVIGATE_RIGHT;
-	}
-
-	private static int navigateLeftState() {
-	
-		if (getDistance(mFrontSonar) < MIN_DISTANCE_FRONT)
-			rotateAngle(-90);
-
-		checkBumpers();
-		int delta = (int) ((getDistance(mLeftSonar) - MIN_DISTANCE_LEFT) * GAIN);
+		if (floorTag == NO_TAG) {
+			// Turn away if wall in front.
+			if (getDistanceMm(FRONT_SONAR) < f.mFrontLimit)
+				return rotateAngle(f.mTurn, f.mState);
 
-		delta = (delta > DELTA_LIMITE ? DELTA_LIMITE : delta);
-
-		move(BASE_POWER, -delta);
-
-	
-		int floorTag = getFloorTag();
-		if(floorTag == CIRCLE_TAG) {
-			return WAIT;
-		}else if(mTotalLines == 2) {
-			stop();
-		}else if (floorTag == LINE_TAG && dentroQuarto == false) {
-			rotateAngle(90);
+			// Move the robot proportionally to the error.
+			move(getWallPower(), f.mSign * proportionalDelta(getDistanceMm(f.mSonar), f.mSetpoint));
+
+			// Look for the flame only within a room, since there is no flame in the
+			// corridors. Doing so prevents the robot from confusing the reflection of
+			// the sun with the flame while navigating the corridors.
+			if (f.mFlameCheck && mFlameInRoom && mFlameSensor.scan() > 0) {
+				mFlameLED.set();
+				return CENTER;
+			}
+			return f.mState;
 		}
 
-
-		return NAVIGATE_LEFT;
-	}
-	
-	private static int navigateBackState() {
-		
-		if (getDistance(mFrontSonar) < MIN_DISTANCE_FRONT)
-			rotateAngle(90);
-
-		checkBumpers(); 
-		
-		int delta = (int) ((getDistance(mRightSonar) - MIN_DISTANCE_RIGHT) * GAIN);
-
-		// Limit the delta to solve situation where the error is to big, like in certain
-		// corners.
-		delta = (delta > DELTA_LIMITE ? DELTA_LIMITE : delta);
-
-		// Move the robot proportionally to the error.
-		move(BASE_POWER, delta);
-		
-		
-		int floorTag = getFloorTag();
-		
-		
-		
-		if ( floorTag == LINE_TAG) {
-			move(BASE_POWER, 0);
-			wait(500);
-			rotateAngle(90);
-			move(BASE_POWER, 0);
-			wait(5500);
+		if (floorTag == CIRCLE_TAG) {
+			if (mLegTo == HOME)
+				return arrive(HOME);
+			// Home while heading to a room, the wall led the wrong way: turn back and go
+			// on with the same leg.
+			maneuverToReturnBack();
+			return perform(f.mState);
 		}
-			
-			if (floorTag == CIRCLE_TAG) {
-					return WAIT;
-			}
-			
-		
-		
-		/*if (floorTag == LINE_TAG) {
-			rotateAngle(100);
-			move(BASE_POWER, 0);
-			wait(500);
-			
-			if (floorTag == CIRCLE_TAG) {
-				if (mFlame == true)
-					maneuverToReturnBack();
-				else
-					return WAIT;
-			}
-			
-		}*/
-		
-		/*do {
-			move(BASE_POWER,0);
-			}while((floorTag == 1));*/
-
 
-			/*if (getDistance(mFrontSonar) < MIN_DISTANCE_FRONT)
-				rotateAngle(90);
-
-			checkBumpers(); 
-		
-			int delta = (int) ((getDistance(mRightSonar) - MIN_DISTANCE_RIGHT) * GAIN);
-
-			// Limit the delta to solve situation where the error is to big, like in certain
-			// corners.
-			delta = (delta > DELTA_LIMITE ? DELTA_LIMITE : delta);
-
-			// Move the robot proportionally to the error.
-			move(BASE_POWER, delta);
-			
-			
-		
-			rotateAngle(90);
-			do {
-				move(BASE_POWER,0);
-				}while((getDistance(mFrontSonar) > MIN_DISTANCE_FRONT));
-		
-*/
-		// ===== Transition conditions of the state =====
-
-		// If at start circle and flame still lit, than go back to go to island room.
-		// Else go to state WAIT.
-
-		
-		/*if (floorTag == CIRCLE_TAG) {
-			if (mFlame == true)
-				maneuverToReturnBack();
-			else
-				return WAIT;
-		} else if (floorTag == LINE_TAG) {
-			stop();
-			wait(1000);
-			mRoom++;
-			if (mUVTronSensor.sample() > 0)
-				mFlameInRoom = true;
-			else
-				maneuverToGoToNextRoom();
-			if (mRoom == 4)
-				mRoom = 3;
+		switch (f.mLine) {
+		case WallFollower.ENTER_ROOM:
+			// The room is looked at while the robot keeps going, no need to stop.
+			mRoomFlame.reset();
+			addMove(BASE_POWER, 0, ROOM_CHECK_TIME, FRONT_WALL_NEAR);
+			return perform(ENTER_ROOM);
+		case WallFollower.CROSS_AND_TURN:
+			addMove(BASE_POWER, 0, 900, null); // The line is found once crossed, 400 ms later than it used to be.
+			addRotateSquare(-90);
+			addMove(BASE_POWER, 0, 5500, FRONT_WALL_NEAR);
+			return perform(f.mState);
 		}
-
-		if (mFlameInRoom && mFlameSensor.scan() > 0) {
-			mFlameLED.set();
-			return CENTER;
-		}*/
-
-		return NAVIGATE_BACK;
+		return f.mState;
 	}
-	
-	private static int rQuarto3() {
-		
-		if (getDistance(mFrontSonar) < MIN_DISTANCE_FRONT)
-			rotateAngle(90);
-
-		checkBumpers();
-		int delta = (int) ((getDistance(mRightSonar) - MIN_DISTANCE_RIGHT) * GAIN);
 
-		delta = (delta > DELTA_LIMITE ? DELTA_LIMITE : delta);
-
-		move(BASE_POWER, delta);
-
-	
-		int floorTag = getFloorTag();
-		if(floorTag == CIRCLE_TAG) {
-			return WAIT;
+	private static int centerState() {
+		// Steers towards the bearing of the flame while moving forward, in proportion to
+		// it, and only turns in place while the flame is far to a side. The bearing comes
+		// from the tracker, so the robot keeps steering through the scans that miss it.
+		if (mStateStart == mNow) { // First tick in this state.
+			mFlameTracker.reset();
+			mNearSince = mNow;
 		}
-		
-		return RETURN_Q3;
-		
-	}
-private static int rQuarto4() {
-		
-		if (getDistance(mFrontSonar) < MIN_DISTANCE_FRONT)
-			rotateAngle(90);
-
-		checkBumpers();
-		int delta = (int) ((getDistance(mRightSonar) - MIN_DISTANCE_RIGHT) * GAIN);
-
-		delta = (delta > DELTA_LIMITE ? DELTA_LIMITE : delta);
-
-		move(BASE_POWER, delta);
-
-	
-		int floorTag = getFloorTag();
-		if(floorTag == CIRCLE_TAG) {
-			return WAIT;
+		boolean found = mFlameSensor.scan() > 0; // Make a scan to get the bearing of the flame.
+		if (!mFlameTracker.update(mNow, found, mFlameSensor.getBearing())) {
+			// Not seen for longer than the gap: look for it again along the wall.
+			return (mNow - mStateStart < TRACK_GAP ? CENTER : NAVIGATE_RIGHT);
 		}
-		
-		return RETURN_Q4;
-		
-	}
-	
-	private static int centerState() {
 
-		switch (mFlameSensor.scan()) { // Make a scan to get the direction towards the flame.
-
-		case 1: // The flame is far to the left.
-			rotate(-3);
-			break;
-		case 2: // The flame is slightly to the left.
-			rotate(-3);
-			break;
-		case 3: // The flame is ahead.
-			move(8, 0); // Go forward slowly towards the flame.
-			if (getDistance(mFrontSonar) < 15) {
+		int bearing = mFlameTracker.getBearing();
+		if (bearing > CENTER_TURN_LIMIT)
+			rotate(3); // The flame is far to the left.
+		else if (bearing < -CENTER_TURN_LIMIT)
+			rotate(-3); // The flame is far to the right.
+		else {
+			// Slower once near the flame, and only a short way further before blowing,
+			// or up to the candle if the sonar sees it first. The proximity is the one of
+			// the last scan that found the flame.
+			boolean near = mFlameSensor.getProximity() >= CENTER_NEAR;
+			if (!near)
+				mNearSince = mNow;
+			move(near ? CENTER_NEAR_POWER : CENTER_POWER, -bearing / CENTER_GAIN);
+			if (found && (getDistanceMm(FRONT_SONAR) < 150 || mNow - mNearSince >= CENTER_NEAR_TIME)
+					&& bearing <= CENTER_AHEAD && bearing >= -CENTER_AHEAD) {
 				stop();
 				return PUT_OUT;
-				// return WAIT;
 			}
-			break;
-		case 4: // The flame is slightly to the right.
-			rotate(3);
-			break;
-		case 5: // The flame is far to the right.
-			rotate(3); // Turn far left
-			break;
-		case -1: // The flame was lost.
-			// rotate(-3);
-			break;
 		}
 
-		displayFlameSensorData(1);
+		displayFlameSensorData();
 
 		return CENTER;
 	}
 
 	private static int putOutState() {
-		mFan.setPower(16);
-		wait(2000);
+		if (mStateStart == mNow) // First tick in this state.
+			mFan.setPower(16);
+		if (mNow - mStateStart < 2000)
+			return PUT_OUT; // Keep blowing, while the stop button is still watched.
 		mFan.setPower(0);
 		mFlameLED.clear();
 		
@@ -476,120 +587,192 @@ private static int rQuarto4() {
 		maneuverPutOut();
 		
 		
-		return RETURN;
+		return perform(RETURN);
 	}
 
-	private static int returnState() {
-		
-		
-		switch(mRoom) {
-		case 1:
-			return NAVIGATE_LEFT;
-		case 2:
-			return NAVIGATE_BACK;
-		case 3:
-			return RETURN_Q3;
-		case 4: 
-			return NAVIGATE_RIGHT;
-		}
-		
-		
-		
-		/*if (getDistance(mFrontSonar) < MIN_DISTANCE_FRONT)
-			rotateAngle(90);
+	private static int enterRoomState() {
+		return arrive(mLegTo);
+	}
 
-		checkBumpers();
-		int delta = (int) ((getDistance(mRightSonar) - MIN_DISTANCE_RIGHT) * GAIN);
+	private static int returnState() {
+		mGoal = HOME;
+		return startLeg();
+	}
 
-		delta = (delta > DELTA_LIMITE ? DELTA_LIMITE : delta);
+	private static int arrive(int place) {
+		// The robot reached the place at the end of the current leg. Once at the goal,
+		// the mission is over at home, and a room is either searched for the flame or
+		// left for the next one. Otherwise the route goes on.
+		mRoom = place;
+		if (place == mGoal) {
+			if (place == HOME)
+				return driveIntoCircle();
+			if (mRoomFlame.getConfidence() >= ROOM_CONFIDENCE) {
+				mFlameInRoom = true;
+				return startSweep();
+			}
+			mGoal = (place == ROOM_4 ? ROOM_1 : place + 1);
+		}
+		return startLeg();
+	}
 
-		move(BASE_POWER, delta);
+	private static int startSweep() {
+		// Turns once in place with the flame sensors scanned on every tick, the
+		// direction of the flame is then taken from the sweep by sweepState(). No need
+		// if the last scan of the room already found the flame.
+		if (mFlameSensor.getDirection() > 0)
+			return CENTER;
+		mSweep.reset();
+		mManeuver.addTurn(360000, angleToTime(360) * 2);
+		mManeuver.add(0, 0, 0); // Stop.
+		return perform(SWEEP);
+	}
 
-		//if (mLineSensor.sample() < LINE_LIMIT) {
-			//return WAIT; // White circle detected.
-		//}
-	
-		int floorTag = getFloorTag();
-		if(floorTag == CIRCLE_TAG) {
-			return WAIT;
-		}else if(mTotalLines == 2) {
-			stop();
-			//dentroQuarto = false;
-		}else if (floorTag == LINE_TAG && dentroQuarto == false) {
-			rotateAngle(90);
-			
-		}*/
-		
+	private static int sweepState() {
+		// The sweep is over: turns to where the sensors saw the most and drives that way
+		// until the flame is close enough to track. If they saw nothing, the room is
+		// searched along the wall.
+		int peak = mSweep.getPeak();
+		if (peak < 0 || mSweep.getValue(peak) < SWEEP_MIN)
+			return perform(NAVIGATE_RIGHT);
+		int angle = (mSweep.getDirection(peak) - mPose.getHeading()) % 360000;
+		if (angle > 180000)
+			angle -= 360000;
+		else if (angle <= -180000)
+			angle += 360000;
+		mManeuver.addTurn(angle, angleToTime((angle < 0 ? -angle : angle) / 1000) * 2);
+		addMove(BASE_POWER, 0, SWEEP_APPROACH_TIME, FLAME_SEEN);
+		mManeuver.add(0, 0, 0); // Stop.
+		return perform(CENTER);
+	}
 
-		return WAIT;
+	private static int startLeg() {
+		// Starts the first leg of the route from the place reached last to the goal.
+		Leg leg = mRoutes.getLeg(mRoom, mGoal);
+		if (leg == null)
+			return WAIT; // Already there.
+		mLegTo = mRoutes.getNext(mRoom, mGoal);
+		if (leg.mTurn != 0)
+			addRotateSquare(leg.mTurn);
+		if (leg.mDuration != 0)
+			addMove(leg.mPower, leg.mDelta, leg.mDuration, leg.mUntil);
+		if (leg.mThenTurn != 0)
+			addRotateAngle(leg.mThenTurn);
+		if (leg.mThenDuration != 0)
+			addMove(leg.mPower, 0, leg.mThenDuration, leg.mThenUntil);
+		return perform(leg.mFollower.mState);
 	}
 
-	
 	// ================================================================================
 	// Methods to read sensors.
 	// ================================================================================
 
-	private static float getDistance(RangeFinder s) {
-		s.ping();
-		wait(10);
-		float d = s.getDistanceCm();
-		return (d < 0 ? 100f : d);
-	}
-
-	private static void checkBumpers() {
-		if (!mLeftBumper.isSet() && !mRightBumper.isSet()) {
-			move(-BASE_POWER, 0); // Move backwards.
-			wait(1000);
-		} else if (!mLeftBumper.isSet()) {
-			move(-BASE_POWER, 5); // Move backwards to the left.
-			wait(1000);
-		} else if (!mRightBumper.isSet()) {
-			move(-BASE_POWER, -5); // Move backwards to the right.
-			wait(1000);
-		}
+	private static int getDistanceMm(int sonar) {
+		// Distance (mm) in the inputs of the tick, no need to wait for the echo.
+		return mInputs.get(InputSampler.SONARS_MM + sonar);
 	}
 
-	private static void countLines() {
-		if (mLineSensor.sample() < LINE_LIMIT) {
-			move(BASE_POWER, 0);
-			wait(500);
-			mTotalLines++;
-			mLcd.print(1, "L: " + mTotalLines);
-		}
+	private static void checkRoom() {
+		// Adds the UVTron and a scan of the flame sensors to the check of the room.
+		mFlameSensor.scan();
+		mRoomFlame.update(mUVTronSensor.sample(), mFlameSensor.getEnergy());
+	}
+
+	private static void addSweepScan() {
+		// Adds a scan of the flame sensors to the sweep, at the heading it was taken.
+		mFlameSensor.scan();
+		int heading = mPose.getHeading();
+		for (int i = 0; i < 5; i++)
+			mSweep.add(heading, i, mFlameSensor.getSensor(i));
 	}
 
-	private static void countLines2() {
-		if (getFloorTag() == LINE_TAG) {
-			mTotalLines++;
-			mLcd.print(1, "L: " + mTotalLines);
+	private static void updateMap() {
+		// Adds to the map the echoes published since the last tick, usually one. The
+		// sonars are published in round-robin from the first, so the count tells which.
+		int count = mInputs.get(InputSampler.SONAR_COUNT);
+		if (count - mMapped > SONAR_ANGLES.length)
+			mMapped = count - SONAR_ANGLES.length; // Only the latest echo of each sonar is kept.
+		for (; mMapped < count; mMapped++) {
+			int sonar = mMapped % SONAR_ANGLES.length;
+			mMap.addRay(mPose.getX(), mPose.getY(), mPose.getHeading() + SONAR_ANGLES[sonar],
+					getDistanceMm(sonar) + SONAR_OFFSET);
 		}
 	}
 
-	private static void testLineSensor() {
-		mLcd.print(1, "L: " + mLineSensor.sample());
+	private static int getWallPower() {
+		// Power to follow a wall. On the way home the robot drives over ground it
+		// mapped on the way out, so it goes faster while the map shows the way ahead
+		// free well beyond the front limit.
+		if (mGoal == HOME && mMap.getFreeDistance(mPose.getX(), mPose.getY(), mPose.getHeading(),
+				MAP_CLEAR) >= MAP_CLEAR)
+			return RETURN_POWER;
+		return BASE_POWER;
 	}
 
-	private static int getFloorTag() {
-		if (mLineSensor.sample() < LINE_LIMIT) {
-			move(BASE_POWER, 0);
-			wait(500);
-			// stop();
-			if (mLineSensor.sample() < LINE_LIMIT)
-				return CIRCLE_TAG; // White circle detected.
-			else
-				return LINE_TAG; // White line detected.
+	private static int checkBumpers(int state, int pressed) {
+		// Backs off from a contact, cancelling the maneuver in progress, then resumes the
+		// state. A bumper pressed since the last tick is a contact even in the middle of a
+		// maneuver, one that is still held only once the maneuver is over. The robot
+		// stays put while waiting and putting out the flame.
+		if (state == WAIT || state == PUT_OUT)
+			return state;
+		int contact = (pressed | (mManeuver.isActive() ? 0 : mWatcher.getHeld()))
+				& (InputWatcher.LEFT_BUMPER | InputWatcher.RIGHT_BUMPER);
+		if (contact == 0)
+			return state;
+		mManeuver.cancel();
+		if (contact == (InputWatcher.LEFT_BUMPER | InputWatcher.RIGHT_BUMPER)) {
+			addMove(-BASE_POWER, 0, 1000, null); // Move backwards.
+		} else if (contact == InputWatcher.LEFT_BUMPER) {
+			addMove(-BASE_POWER, 5, 1000, null); // Move backwards to the left.
+		} else {
+			addMove(-BASE_POWER, -5, 1000, null); // Move backwards to the right.
 		}
-		return NO_TAG; // No white tag detected.
+		mManeuver.start(mNow); // The wheels are reversed now, not at the next tick.
+		if ((pressed & contact) != 0)
+			mStats.recordReaction((int) (mClock.millis() - mWatcher.getPressTime(pressed & contact)));
+		return state;
 	}
 
-	private static int checkStopButton(int s) {
-		if (!mStopButton.isSet()) {
-			stop();
+	private static int getFloorTag() {
+		// The tags are classified by mFloorTags while the robot keeps moving over them,
+		// each is returned once.
+		return mFloorTags.poll();
+	}
+
+	private static int checkStopButton(int s, int pressed) {
+		// A press shorter than a tick counts as well as one that is held.
+		if (((pressed | mWatcher.getHeld()) & InputWatcher.STOP_BUTTON) != 0) {
+			mManeuver.cancel();
+			brake();
+			if (s != WAIT && !mDumping)
+				dumpRun();
 			return WAIT;
 		}
 		return s;
 	}
 
+	private static void dumpRun() {
+		// The summary and the last frames of the run go to the console from a thread below
+		// everything else, since printing them takes many ticks. The frames are kept as
+		// they are until they are printed, the ticks in WAIT meanwhile are not recorded.
+		mDumping = true;
+		final RingLog frames = (mTelemetryLog instanceof RingLog ? (RingLog) mTelemetryLog : null);
+		if (frames != null)
+			frames.setFrozen(true);
+		mClock.start(new Runnable() {
+			public void run() {
+				mStats.print(System.out);
+				mWatchdog.print(System.out);
+				if (frames != null) {
+					frames.print(System.out);
+					frames.setFrozen(false);
+				}
+				mDumping = false;
+			}
+		}, Thread.MIN_PRIORITY);
+	}
+
 	// ================================================================================
 	// Methods to move the robot.
 	// ================================================================================
@@ -599,21 +782,34 @@ private static int rQuarto4() {
 		mRightMotor.setPower(power - delta);
 	}
 
+	static void prepareControl() {
+		// Converts the gain to fixed point once, the IntelliBrain has no FPU.
+		mGain = (int) (GAIN * 65536 / 10 + 0.5f);
+	}
+
+	static int proportionalDelta(int distance, int target) {
+		// Proportional control of the distance to the wall (mm), the same as
+		// (int) ((distance - target) / 10f * GAIN) in integers: the error times the gain
+		// per mm in Q16, truncated toward zero. The delta is limited to solve situations
+		// where the error is too big, like in certain corners.
+		int error = distance - target;
+		int delta = (error >= 0 ? (error * mGain) >> 16 : -((-error * mGain) >> 16));
+		return (delta > DELTA_LIMITE ? DELTA_LIMITE : delta);
+	}
+
+	static int angleToTime(int angle) {
+		// Time to rotate the angle (ms), for a positive angle.
+		return (angle * ANGLE_TO_TIME_FACTOR) >> 1;
+	}
+
 	private static void rotate(int power) {
 		mLeftMotor.setPower(-power);
 		mRightMotor.setPower(power);
 	}
 
-	private static void rotateAngle(int angle) {
-		if (angle < 0) {
-			angle = -angle;
-			rotate(-ROTATE_POWER);
-		} else {
-			rotate(ROTATE_POWER);
-		}
-
-		wait((int) (angle * ANGLE_TO_TIME_FACTOR));
-		stop();
+	private static int rotateAngle(int angle, int nextState) {
+		addRotateAngle(angle);
+		return perform(nextState);
 	}
 
 	private static void stop() {
@@ -629,89 +825,83 @@ private static int rQuarto4() {
 	// ================================================================================
 	// Methods to implement maneuvers.
 	// ================================================================================
+	// The maneuvers only add steps to mManeuver. The state that adds them returns
+	// perform(nextState), and the steps are then advanced on every tick.
+
+	private static int perform(int nextState) {
+		mManeuver.start(mNow);
+		return nextState;
+	}
+
+	private static void addMove(int power, int delta, int duration, Condition until) {
+		mManeuver.add(power + delta, power - delta, duration, until);
+	}
+
+	private static void addRotateAngle(int angle) {
+		// The turn ends when the estimated heading is reached. The time the same turn
+		// takes at ROTATE_POWER, doubled, is only a limit in case it is never reached.
+		mManeuver.addTurn(angle * 1000, angleToTime(angle < 0 ? -angle : angle) * 2);
+		mManeuver.add(0, 0, 0); // Stop.
+	}
+
+	private static void addRotateSquare(int angle) {
+		// Turns by about the angle, to the heading square with the walls nearest to it,
+		// so the wobble of the wall following is not carried on after the turn.
+		int heading = mPose.getHeading();
+		int target = heading + angle * 1000;
+		int rest = target % 90000;
+		if (rest < 0)
+			rest += 90000;
+		target += (rest < 45000 ? -rest : 90000 - rest);
+		int turn = target - heading;
+		mManeuver.addTurn(turn, angleToTime((turn < 0 ? -turn : turn) / 1000) * 2);
+		mManeuver.add(0, 0, 0); // Stop.
+	}
 
 	private static void maneuverPutOut() {
 		
-		rotateAngle(-90);
-		do {
-		move(BASE_POWER,0);
-		}while((getDistance(mFrontSonar) > MIN_DISTANCE_FRONT) && (getDistance(mRightSonar) > MIN_DISTANCE_RIGHT));
+		addRotateAngle(-90);
+		addMove(BASE_POWER, 0, 5000, WALL_NEAR); // 1.4 m at most, across any room.
 	}
 	
 	private static void maneuverToExitWhiteCircle() {
-		move(Motor.MAX_FORWARD, 0);
-		do {
-		} while (mLineSensor.sample() < LINE_LIMIT);
+		addMove(Motor.MAX_FORWARD, 0, 1000, OUT_OF_CIRCLE); // Twice across the circle at most.
+	}
+
+	private static int driveIntoCircle() {
+		// The circle is only known once the line sensor is CIRCLE_CHORD into it, with the
+		// center of the robot still behind: driving on by the offset of the sensor stops
+		// the center as far in, in the middle of the circle when heading across it. Across
+		// the edge of the circle the sensor reaches the far side first, and backs onto it
+		// again if the robot coasts past.
+		mDriveTo = mPose.getTravelled() + LINE_SENSOR_OFFSET;
+		addMove(BASE_POWER, 0, 1000, DRIVEN_IN); // About three times the offset at most.
+		mManeuver.add(0, 0, 0); // Stop.
+		addMove(-ROTATE_POWER, 0, 1000, ON_CIRCLE);
+		mManeuver.add(0, 0, 0); // Stop.
+		return perform(WAIT);
 	}
 
 	private static void maneuverToReturnBack() {
-		rotateAngle(180);
-		move(BASE_POWER, 0);
-		wait(2000);
+		addRotateAngle(180);
+		addMove(BASE_POWER, 0, 1000, OUT_OF_CIRCLE);
 	}
 
 	private static void maneuverToCorrectDirection() {
-		if (getDistance(mLeftSonar) < 30)
-			do
-				rotate(ROTATE_POWER);
-			while (getDistance(mRightSonar) > 20);
+		if (getDistanceMm(LEFT_SONAR) < 300)
+			mManeuver.add(-ROTATE_POWER, ROTATE_POWER, angleToTime(360), RIGHT_WALL_NEAR); // A turn at most.
 		// rotateAngle(-90);
 	}
 
-	private static void maneuverToGoToNextRoom() {
-		switch (mRoom) {
-		case 1:
-			rotateAngle(180);
-			do
-				move(BASE_POWER, 0);
-			while (getDistance(mFrontSonar) > 15);
-			// wait(2000);
-			break;
-		case 2:
-			rotateAngle(180);
-			move(BASE_POWER, 3);
-			wait(2000);
-			break;
-		case 3:
-			break;
-		case 4:
-			break;
-		}
-	}
 	// ================================================================================
 	// Auxiliary Methods
 	// ================================================================================
 
 	
 	
-	private static void wait(int ms) {
-		try {
-			Thread.sleep(ms);
-		} catch (Throwable t) {
-			t.printStackTrace();
-		}
-	}
-
-	private static void displayState(int s) {
-		switch (s) {
-		case WAIT:
-			mLcd.print(0, "WAIT");
-			break;
-		case NAVIGATE_RIGHT:
-			mLcd.print(0, "NAV RIGHT");
-			break;
-		case CENTER:
-			mLcd.print(0, "CENTER");
-			break;
-		case PUT_OUT:
-			mLcd.print(0, "PUT OUT");
-			break;
-		}
-	}
-
-	private static void displayFlameSensorData(int l) {
-		mLcd.print(l,
-				"V:" + mFlameSensor.getValue() + "(" + IS_PRESENT_LIMIT + ")" + " D:" + mFlameSensor.getDirection());
+	private static void displayFlameSensorData() {
+		// Shows the value and the direction of the flame on the second line of the LCD.
+		mShowFlame = true;
 	}
 
 }
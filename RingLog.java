@@ -0,0 +1,65 @@
+import java.io.PrintStream;
+
+public class RingLog implements TelemetryLog {
+
+	// Keeps the last frames in a buffer allocated up front, for the robot where there
+	// is no file to write to. The oldest frame is overwritten when it is full.
+
+	private byte[] mBuffer;
+	private int mFrameSize;
+	private int mCapacity;
+	private int mNext;   // Index of the frame to write next.
+	private int mCount;  // Frames in the buffer.
+	private volatile boolean mFrozen; // Frames are not appended while the buffer is printed.
+
+	public RingLog(int capacity, int frameSize) {
+		mCapacity = capacity; // Maximum number of frames kept.
+		mFrameSize = frameSize;
+		mBuffer = new byte[capacity * frameSize];
+	}
+
+	public void append(byte[] frame) {
+		if (mFrozen)
+			return;
+		System.arraycopy(frame, 0, mBuffer, mNext * mFrameSize, mFrameSize);
+		mNext = (mNext + 1) % mCapacity;
+		if (mCount < mCapacity)
+			mCount++;
+	}
+
+	public int getCount() {
+		return mCount;
+	}
+
+	public void setFrozen(boolean frozen) {
+		// Keeps the frames as they are, to print them from another thread than the one
+		// that appends them. Set and cleared around print().
+		mFrozen = frozen;
+	}
+
+	public void print(PrintStream out) {
+		// Dumps the header and the frames in hex, one per line, since the console of
+		// the robot only takes text. TelemetryReader reads the captured console back.
+		StringBuffer sb = new StringBuffer();
+		appendHex(sb, MAGIC);
+		appendHex(sb, mFrameSize);
+		out.println(sb.toString());
+		for (int i = 0; i < mCount; i++) {
+			sb.setLength(0);
+			int k = ((mNext - mCount + i + mCapacity) % mCapacity) * mFrameSize;
+			for (int j = 0; j < mFrameSize; j++)
+				appendHex(sb, mBuffer[k + j]);
+			out.println(sb.toString());
+		}
+	}
+
+	private static void appendHex(StringBuffer sb, int v) {
+		for (int shift = 24; shift >= 0; shift -= 8)
+			appendHex(sb, (byte) (v >> shift));
+	}
+
+	private static void appendHex(StringBuffer sb, byte b) {
+		sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+		sb.append(Character.forDigit(b & 0xf, 16));
+	}
+}
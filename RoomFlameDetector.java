@@ -0,0 +1,67 @@
+public class RoomFlameDetector {
+
+	// Confidence that the flame is in the room being entered, from the readings taken
+	// while the robot drives through the doorway. Each tick adds whether the UVTron
+	// pulsed and the energy of the flame sensors, the sum of their values, and the last
+	// ticks are kept in a ring with their running sums, so one pulse or one bright
+	// reflection does not decide alone and the robot does not have to stop to look.
+
+	private int mUVWeight;      // Share of the UVTron in the confidence (%), the rest is the flame sensors.
+	private int mEnergyFloor;   // Energy of the flame sensors without the flame.
+	private int mEnergyFull;    // Energy at which the flame sensors are sure of the flame.
+
+	private int[] mPulses;      // Ring of the last ticks: 1 if the UVTron pulsed.
+	private int[] mEnergies;    // Ring of the last ticks: energy of the flame sensors.
+	private int mNext;          // Next slot of the rings.
+	private int mCount;         // Ticks in the rings, up to their length.
+	private int mPulseSum;
+	private int mEnergySum;
+
+	public RoomFlameDetector(int window, int uvWeight, int energyFloor, int energyFull) {
+		mPulses = new int[window];    // Ticks kept.
+		mEnergies = new int[window];
+		mUVWeight = uvWeight;
+		mEnergyFloor = energyFloor;
+		mEnergyFull = energyFull;
+	}
+
+	public void reset() {
+		// Forgets the ticks added so far, before entering a room.
+		mNext = 0;
+		mCount = 0;
+		mPulseSum = 0;
+		mEnergySum = 0;
+	}
+
+	public void update(int uv, int energy) {
+		// Adds a tick: the UVTron sample and the energy of the flame sensors.
+		int pulse = (uv > 0 ? 1 : 0);
+		if (mCount == mPulses.length) {
+			mPulseSum -= mPulses[mNext];
+			mEnergySum -= mEnergies[mNext];
+		} else {
+			mCount++;
+		}
+		mPulses[mNext] = pulse;
+		mEnergies[mNext] = energy;
+		mPulseSum += pulse;
+		mEnergySum += energy;
+		if (++mNext == mPulses.length)
+			mNext = 0;
+	}
+
+	public int getConfidence() {
+		// Confidence (%) of the flame over the ticks kept: the share of the ticks the
+		// UVTron pulsed, and the mean energy of the flame sensors between the floor and
+		// full, weighed together. 0 until a tick is added.
+		if (mCount == 0)
+			return 0;
+		int uv = mPulseSum * 100 / mCount;
+		int ir = (mEnergySum / mCount - mEnergyFloor) * 100 / (mEnergyFull - mEnergyFloor);
+		if (ir < 0)
+			ir = 0;
+		else if (ir > 100)
+			ir = 100;
+		return (uv * mUVWeight + ir * (100 - mUVWeight)) / 100;
+	}
+}
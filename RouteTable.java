@@ -0,0 +1,64 @@
+public class RouteTable {
+
+	// Shortest routes between the places of the arena: the home circle and the rooms.
+	// The places are joined by the legs the robot knows how to drive, and the routes
+	// between every pair of places are worked out once, when the robot starts, so
+	// finding the way from one place to another is then a lookup.
+
+	public static final int NONE = -1;
+	private static final int INFINITE = Integer.MAX_VALUE / 2;
+
+	private int mPlaces;
+	private int[][] mCost;  // Length of the shortest route between two places (cm).
+	private int[][] mNext;  // First place after the start on the shortest route.
+	private Leg[][] mLegs;  // Leg that joins two places directly, null if none.
+
+	public RouteTable(int places) {
+		mPlaces = places;
+		mCost = new int[places][places];
+		mNext = new int[places][places];
+		mLegs = new Leg[places][places];
+		for (int i = 0; i < places; i++) {
+			for (int j = 0; j < places; j++) {
+				mCost[i][j] = (i == j ? 0 : INFINITE);
+				mNext[i][j] = (i == j ? i : NONE);
+			}
+		}
+	}
+
+	public void addLeg(int from, int to, int length, Leg leg) {
+		// Joins two places by a leg of the given length (cm), in that direction only.
+		mCost[from][to] = length;
+		mNext[from][to] = to;
+		mLegs[from][to] = leg;
+	}
+
+	public void build() {
+		// Works out the routes between all the pairs of places (Floyd-Warshall), once
+		// all the legs have been added.
+		for (int k = 0; k < mPlaces; k++) {
+			for (int i = 0; i < mPlaces; i++) {
+				for (int j = 0; j < mPlaces; j++) {
+					int cost = mCost[i][k] + mCost[k][j];
+					if (cost < mCost[i][j]) {
+						mCost[i][j] = cost;
+						mNext[i][j] = mNext[i][k];
+					}
+				}
+			}
+		}
+	}
+
+	public int getNext(int from, int to) {
+		// The place the route from one place to another goes through first, NONE if
+		// there is no route.
+		return mNext[from][to];
+	}
+
+	public Leg getLeg(int from, int to) {
+		// The leg to drive first on the route from one place to another, null if there
+		// is no route or the places are the same.
+		int next = mNext[from][to];
+		return (next == NONE ? null : mLegs[from][next]);
+	}
+}
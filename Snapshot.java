@@ -0,0 +1,64 @@
+public class Snapshot {
+
+	// Values published by one thread for the others, without a lock: a sequence lock.
+	// The writer makes the sequence odd while it writes and even again when done, and
+	// a reader copies the values and starts over if the sequence was odd or changed
+	// meanwhile. The writer never waits for the readers. On the single processor of the
+	// robot the readers must run below the priority of the writer, or a reader could
+	// spin on a write it interrupted.
+	//
+	// The values are plain fields and there are no fences in Java 1.3, so the sequence
+	// only orders them on the single processor of the robot, where the threads take
+	// turns. On several processors the writes of the values may be seen out of order
+	// with the sequence: the simulator sets mLocked with -realtime, and create() then
+	// gives a LockedSnapshot.
+
+	static boolean mLocked; // Threads on several processors, see LockedSnapshot.
+
+	private volatile int mSequence;
+	private int[] mValues;
+
+	public static Snapshot create(int size) {
+		return (mLocked ? new LockedSnapshot(size) : new Snapshot(size));
+	}
+
+	public Snapshot(int size) {
+		mValues = new int[size];
+	}
+
+	public void begin() {
+		// Starts a write, only the thread that owns the snapshot may call it.
+		mSequence++;
+	}
+
+	public void set(int i, int value) {
+		mValues[i] = value;
+	}
+
+	public void end() {
+		// Ends a write, the values set since begin() are then published together.
+		mSequence++;
+	}
+
+	public int read(int[] values) {
+		// Copies the values of the last complete write and returns its sequence, which
+		// only changes when something new is published.
+		while (true) {
+			int sequence = copy(values);
+			if ((sequence & 1) == 0)
+				return sequence;
+			Thread.yield(); // The writer was interrupted, let it finish.
+		}
+	}
+
+	int copy(int[] values) {
+		// Copies the values once and returns their sequence, odd if they were being written.
+		int sequence = mSequence;
+		if ((sequence & 1) == 0) {
+			System.arraycopy(mValues, 0, values, 0, mValues.length);
+			if (mSequence != sequence)
+				return sequence | 1;
+		}
+		return sequence;
+	}
+}
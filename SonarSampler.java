@@ -0,0 +1,70 @@
+import com.ridgesoft.robotics.RangeFinder;
+
+public class SonarSampler implements Runnable {
+
+	public static final float NO_ECHO_DISTANCE = 100f; // Distance reported when there is no echo.
+
+	private RangeFinder[] mSonars;
+	private int mInterval;
+	private Clock mClock;
+
+	private float[] mDistance;
+	private int[] mDistanceMm;
+	private int mCurrent;
+	private volatile int mCount;
+
+	public SonarSampler(RangeFinder sonars[], int interval, Clock clock) {
+		mSonars = sonars;     // Sonars pinged in round-robin, in this order.
+		mInterval = interval; // Time between consecutive pings (ms), long enough to let the echo die out.
+		mClock = clock;
+
+		mDistance = new float[sonars.length];
+		mDistanceMm = new int[sonars.length];
+		for (int i = 0; i < sonars.length; i++) {
+			mDistance[i] = NO_ECHO_DISTANCE;
+			mDistanceMm[i] = (int) (NO_ECHO_DISTANCE * 10);
+		}
+		mCurrent = 0;
+		mCount = 0;
+	}
+
+	public void start() {
+		// The sampler runs above the control loop so the pings keep their schedule.
+		mClock.start(this, Thread.MAX_PRIORITY - 1);
+	}
+
+	public void run() {
+		mSonars[mCurrent].ping();
+		while (true) {
+			mClock.sleep(mInterval);
+			sample();
+		}
+	}
+
+	public void sample() {
+		// Publish the echo of the sonar pinged in the last slot and ping the next one.
+		// Only one sonar is active at a time to avoid crosstalk between them.
+		float d = mSonars[mCurrent].getDistanceCm();
+		mDistance[mCurrent] = (d < 0 ? NO_ECHO_DISTANCE : d);
+		mDistanceMm[mCurrent] = (int) (mDistance[mCurrent] * 10); // Converted once, the control loop uses integers.
+		mCount++;
+
+		mCurrent = (mCurrent + 1) % mSonars.length;
+		mSonars[mCurrent].ping();
+	}
+
+	public float getDistance(int i) {
+		// Get the latest distance (cm) measured by sonar i. Never blocks.
+		return mDistance[i];
+	}
+
+	public int getDistanceMm(int i) {
+		// Get the latest distance (mm, truncated) measured by sonar i. Never blocks.
+		return mDistanceMm[i];
+	}
+
+	public int getCount() {
+		// Get the total number of echoes published so far.
+		return mCount;
+	}
+}
@@ -0,0 +1,3 @@
+public interface StateHandler {
+	public int handle();          // Runs one tick of the state and returns the next state.
+}
@@ -0,0 +1,114 @@
+import com.ridgesoft.robotics.Motor;
+
+public class StatusDisplay implements Runnable {
+
+	// Records the telemetry and shows the state on the LCD. The control loop publishes
+	// its status at the end of every tick, with the inputs it used: the frame of the
+	// telemetry is recorded there and then, so there is one for every tick, and the LCD
+	// is refreshed in a thread of its own below the control loop, which goes on without
+	// waiting for it. If this thread falls behind, the ticks published meanwhile are not
+	// shown.
+
+	// Slots of the status.
+	public static final int TIME = 0;       // Time of the tick (ms).
+	public static final int STATE = 1;      // State after the tick.
+	public static final int MANEUVER = 2;   // 1 if a maneuver was in progress.
+	public static final int ROOM = 3;
+	public static final int POWERS = 4;     // Left motor, right motor and fan powers, 3 slots.
+	public static final int SHOW_FLAME = 7; // 1 to show the flame on the second line.
+	public static final int INPUTS = 8;     // Inputs of the tick, see InputSampler.
+	public static final int SIZE = INPUTS + InputSampler.SIZE;
+
+	private Snapshot mStatus = Snapshot.create(SIZE);
+	private int[] mPower = new int[3];  // Last powers set, kept by the control loop.
+	private int[] mTick = new int[SIZE]; // Status being published, owned by the control loop.
+
+	private LcdBuffer mDisplay;
+	private Telemetry mTelemetry;
+	private String[] mTitles;
+	private int mFlameLimit;
+	private Clock mClock;
+	private int mInterval;
+	private int[] mShown = new int[SIZE]; // Status being shown.
+	private int mSequence;                // Sequence of the status shown last, 0 is none published.
+
+	public StatusDisplay(LcdBuffer display, Telemetry telemetry, String[] titles, int flameLimit, Clock clock,
+			int interval) {
+		mDisplay = display;
+		mTelemetry = telemetry;   // null for none.
+		mTitles = titles;         // First line of the LCD in each state.
+		mFlameLimit = flameLimit; // Shown next to the value of the flame.
+		mClock = clock;
+		mInterval = interval;     // Time between looks at the status (ms), the period of the loop.
+	}
+
+	public void start() {
+		mClock.start(this, Thread.MIN_PRIORITY + 1);
+	}
+
+	public void run() {
+		while (true) {
+			show();
+			mClock.sleep(mInterval);
+		}
+	}
+
+	public void publish(long now, int state, boolean maneuver, int room, boolean showFlame, int[] inputs) {
+		// Records the status at the end of a tick of the control loop and publishes it for
+		// the LCD, never blocks.
+		int[] t = mTick;
+		t[TIME] = (int) now;
+		t[STATE] = state;
+		t[MANEUVER] = (maneuver ? 1 : 0);
+		t[ROOM] = room;
+		for (int i = 0; i < 3; i++)
+			t[POWERS + i] = mPower[i];
+		t[SHOW_FLAME] = (showFlame ? 1 : 0);
+		for (int i = 0; i < InputSampler.SIZE; i++)
+			t[INPUTS + i] = inputs[i];
+		if (mTelemetry != null)
+			mTelemetry.record(t);
+
+		Snapshot s = mStatus;
+		s.begin();
+		for (int i = 0; i < SIZE; i++)
+			s.set(i, t[i]);
+		s.end();
+	}
+
+	private void show() {
+		// Shows the status published last, if it was not already.
+		int sequence = mStatus.read(mShown);
+		if (sequence == mSequence)
+			return;
+		mSequence = sequence;
+
+		int[] s = mShown;
+		mDisplay.setLine(0).append(mTitles[s[STATE]]);
+		if (s[SHOW_FLAME] != 0)
+			mDisplay.setLine(1).append("V:").append(s[INPUTS + InputSampler.FLAME_VALUE]).append('(')
+					.append(mFlameLimit).append(") D:").append(s[INPUTS + InputSampler.FLAME_DIRECTION]);
+		mDisplay.refresh(s[TIME]); // Only the lines that changed are sent.
+	}
+
+	public Motor watch(final Motor motor, final int which) {
+		// Keeps the last power set through the motor, which is one of the powers of the
+		// telemetry (Telemetry.LEFT_MOTOR, RIGHT_MOTOR or FAN).
+		return new Motor() {
+			public void setPower(int power) {
+				mPower[which] = power;
+				motor.setPower(power);
+			}
+
+			public void brake() {
+				mPower[which] = 0;
+				motor.brake();
+			}
+
+			public void stop() {
+				mPower[which] = 0;
+				motor.stop();
+			}
+		};
+	}
+}
@@ -0,0 +1,94 @@
+public class Telemetry {
+
+	// Records a frame of fixed size on every iteration of the control loop, with the
+	// inputs the state machine saw and the commands it gave. Nothing is sampled for
+	// the frame: it is made of the status the control loop published at the end of the
+	// iteration, which holds the inputs of the iteration and the last powers set.
+	//
+	// Layout of a frame, big-endian:
+	//    0  int    time since the first frame (ms)
+	//    4  byte   state after the iteration
+	//    5  byte   flags, see below
+	//    6  float  left, front and right sonar distances (cm), exactly as used
+	//   18  short  flame sensors 1 to 5
+	//   28  short  line sensor
+	//   30  short  UVTron
+	//   32  byte   left motor, right motor and fan powers
+	//   35  byte   direction of the flame
+	//   36  byte   room
+	//   37  byte   reserved, 3 bytes
+
+	public static final int FRAME_SIZE = 40;
+
+	// Offsets of the fields.
+	public static final int TIME = 0;
+	public static final int STATE = 4;
+	public static final int FLAGS = 5;
+	public static final int SONARS = 6;
+	public static final int FLAMES = 18;
+	public static final int LINE = 28;
+	public static final int UVTRON = 30;
+	public static final int POWERS = 32;
+	public static final int DIRECTION = 35;
+	public static final int ROOM = 36;
+
+	// Flags, the digital inputs are recorded as read, high when the bit is set.
+	public static final int LEFT_BUMPER = 0x01;
+	public static final int RIGHT_BUMPER = 0x02;
+	public static final int START_BUTTON = 0x04;
+	public static final int STOP_BUTTON = 0x08;
+	public static final int MANEUVER = 0x10;  // A maneuver was in progress.
+
+	// Powers, in the order of the frame.
+	public static final int LEFT_MOTOR = 0;
+	public static final int RIGHT_MOTOR = 1;
+	public static final int FAN = 2;
+
+	private TelemetryLog mLog;
+
+	private byte[] mFrame = new byte[FRAME_SIZE];
+	private long mStart = -1;
+
+	public Telemetry(TelemetryLog log) {
+		mLog = log;
+	}
+
+	public void record(int[] status) {
+		// Records a status published by the control loop, see StatusDisplay.
+		long now = status[StatusDisplay.TIME];
+		if (mStart < 0)
+			mStart = now;
+		int in = StatusDisplay.INPUTS;
+		byte[] f = mFrame;
+		putInt(f, TIME, (int) (now - mStart));
+		f[STATE] = (byte) status[StatusDisplay.STATE];
+		// The digital inputs are sampled in the order of their flags.
+		f[FLAGS] = (byte) (status[in + InputSampler.PORTS] | (status[StatusDisplay.MANEUVER] != 0 ? MANEUVER : 0));
+		for (int i = 0; i < 3; i++)
+			putInt(f, SONARS + 4 * i, status[in + InputSampler.SONARS + i]);
+		for (int i = 0; i < 5; i++)
+			putShort(f, FLAMES + 2 * i, status[in + InputSampler.FLAMES + i]);
+		putShort(f, LINE, status[in + InputSampler.LINE]);
+		putShort(f, UVTRON, status[in + InputSampler.UVTRON]);
+		for (int i = 0; i < 3; i++)
+			f[POWERS + i] = (byte) status[StatusDisplay.POWERS + i];
+		f[DIRECTION] = (byte) status[in + InputSampler.FLAME_DIRECTION];
+		f[ROOM] = (byte) status[StatusDisplay.ROOM];
+		f[ROOM + 1] = 0;
+		f[ROOM + 2] = 0;
+		f[ROOM + 3] = 0;
+		mLog.append(f);
+	}
+
+	private static void putInt(byte[] f, int i, int v) {
+		f[i] = (byte) (v >> 24);
+		f[i + 1] = (byte) (v >> 16);
+		f[i + 2] = (byte) (v >> 8);
+		f[i + 3] = (byte) v;
+	}
+
+	private static void putShort(byte[] f, int i, int v) {
+		f[i] = (byte) (v >> 8);
+		f[i + 1] = (byte) v;
+	}
+}
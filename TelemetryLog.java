@@ -0,0 +1,9 @@
+public interface TelemetryLog {
+
+	// Files and dumps of a log start with a header of two ints: MAGIC and the size of
+	// the frames. The frames follow, all of the same size, from the oldest.
+	public static final int MAGIC = 0x52425431; // "RBT1"
+	public static final int HEADER_SIZE = 8;
+
+	public void append(byte[] frame);  // Appends a copy of the frame, the array is reused by the caller.
+}
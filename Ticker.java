@@ -0,0 +1,35 @@
+
+public class Ticker {
+	private Clock mClock;
+	private int mPeriod;
+	private long mNext;
+
+	public Ticker(Clock clock, int period) {
+		mClock = clock;
+		mPeriod = period; // Period of the ticks (ms).
+		mNext = -1;
+	}
+
+	public long waitNextTick() {
+		// Sleeps until the next tick and returns its scheduled time. The ticks are
+		// scheduled at a fixed rate, so the time spent in the loop does not add up.
+		long now = mClock.millis();
+		if (mNext < 0)
+			mNext = now;
+
+		long d = mNext - now;
+		if (d > 0) {
+			mClock.sleep((int) d);
+		} else if (-d >= mPeriod) {
+			mNext = now; // Too late, skip the missed ticks instead of running them in a burst.
+		}
+
+		long tick = mNext;
+		mNext += mPeriod;
+		return tick;
+	}
+
+	public int getPeriod() {
+		return mPeriod;
+	}
+}
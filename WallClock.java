@@ -0,0 +1,21 @@
+
+public class WallClock implements Clock {
+
+	public long millis() {
+		return System.currentTimeMillis();
+	}
+
+	public void sleep(int ms) {
+		try {
+			Thread.sleep(ms);
+		} catch (Throwable t) {
+			t.printStackTrace();
+		}
+	}
+
+	public void start(Runnable task, int priority) {
+		Thread t = new Thread(task);
+		t.setPriority(priority);
+		t.start();
+	}
+}
@@ -0,0 +1,32 @@
+public class WallFollower {
+
+	// Parameters of a state that follows a wall, see RBv2019.followWall(). They are
+	// worked out once when the robot starts, so every tick only reads them. What to do
+	// on the white circle depends on the route, see RBv2019.arrive().
+
+	// What to do on a white line.
+	public static final int IGNORE_LINE = 0;
+	public static final int ENTER_ROOM = 1;          // Check the room on the way in.
+	public static final int CROSS_AND_TURN = 2;      // Cross the line, turn right and go on.
+
+	int mState;       // State that follows the wall.
+	int mSonar;       // Sonar that looks at the wall.
+	int mSign;        // 1 for a wall on the right, -1 on the left.
+	int mSetpoint;    // Distance to keep from the wall (mm).
+	int mFrontLimit;  // Distance to the front wall at which to turn (mm).
+	int mTurn;        // Angle to turn at a front wall (degrees).
+	int mLine;
+	boolean mFlameCheck; // Look for the flame while in a room.
+
+	public WallFollower(int state, int sonar, boolean right, int setpoint, int frontLimit, int line,
+			boolean flameCheck) {
+		mState = state;
+		mSonar = sonar;
+		mSign = (right ? 1 : -1);
+		mSetpoint = setpoint;
+		mFrontLimit = frontLimit;
+		mTurn = (right ? 90 : -90); // Away from the wall.
+		mLine = line;
+		mFlameCheck = flameCheck;
+	}
+}
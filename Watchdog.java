@@ -0,0 +1,128 @@
+import java.io.PrintStream;
+
+import com.ridgesoft.robotics.Servo;
+
+public class Watchdog implements Runnable {
+
+	// Deadline of the ticks of the control loop. Every iteration reports its end with
+	// kick(), and the iterations that end later than the deadline after their tick are
+	// counted as misses, in a histogram of the overrun per state. The watchdog thread
+	// runs above the control loop and brakes the wheels if no iteration has ended for
+	// longer than the hard limit, so a stalled loop does not leave the robot driving
+	// blind. It writes the servos themselves, never the motors the loop drives them
+	// through, and flags the stall: the loop brakes its motors too on its next tick, so
+	// the powers they keep match the servos again, then commands the wheels as usual.
+
+	// Upper limit of each bucket of overrun (ms), the last bucket takes everything above.
+	private static final int[] LIMITS = { 1, 2, 4, 8, 16, 32, 64 };
+	private static final int BUCKETS = LIMITS.length + 1;
+
+	private Servo mLeftWheel;  // null to only flag the stalls.
+	private Servo mRightWheel;
+	private Clock mClock;
+	private int mDeadline;
+	private int mHardLimit;
+	private int mInterval;
+
+	// Owned by the control loop.
+	private volatile int mLastKick;  // End of the last iteration (ms).
+	private String[] mNames;
+	private int[][] mHistogram;     // Misses of each state by overrun.
+	private long[] mTotal;          // Overrun of the misses of each state (ms).
+	private int[] mMax;
+	private int mMisses;
+	private int mLongestGap;        // Longest time between the ends of two iterations (ms).
+
+	private volatile boolean mStalled; // Set by the watchdog when it braked, cleared by the loop.
+
+	// Owned by the watchdog thread.
+	private int mStalls;
+	private int mStalledKick = -1;  // Last kick before the stall the wheels were braked for.
+
+	public Watchdog(Servo leftWheel, Servo rightWheel, String[] names, Clock clock, int deadline, int hardLimit,
+			int interval) {
+		mLeftWheel = leftWheel;
+		mRightWheel = rightWheel;
+		mNames = names;         // Name of each state, by number.
+		mClock = clock;
+		mDeadline = deadline;   // Time after its tick by which an iteration must end (ms).
+		mHardLimit = hardLimit; // Time without an iteration ending after which the wheels are braked (ms).
+		mInterval = interval;   // Time between two looks at the control loop (ms).
+		mHistogram = new int[names.length][BUCKETS];
+		mTotal = new long[names.length];
+		mMax = new int[names.length];
+	}
+
+	public void start() {
+		mLastKick = (int) mClock.millis();
+		mClock.start(this, Thread.MAX_PRIORITY);
+	}
+
+	public void run() {
+		while (true) {
+			mClock.sleep(mInterval);
+			check();
+		}
+	}
+
+	private void check() {
+		// Brakes the wheels once per stall. The servos are only written here while the
+		// control loop is stalled, when it does not write them.
+		int kick = mLastKick;
+		if (kick != mStalledKick && (int) mClock.millis() - kick > mHardLimit) {
+			mStalledKick = kick;
+			mStalls++;
+			if (mLeftWheel != null) {
+				mLeftWheel.setPosition(ContinuousRotationServo.NEUTRAL);
+				mRightWheel.setPosition(ContinuousRotationServo.NEUTRAL);
+			}
+			mStalled = true;
+		}
+	}
+
+	public boolean takeStall() {
+		// Returns true once after the wheels were braked for a stall. Called by the loop.
+		if (!mStalled)
+			return false;
+		mStalled = false;
+		return true;
+	}
+
+	public void kick(int state, long tick) {
+		// Reports the end of an iteration of the loop spent in state, for the given tick.
+		int now = (int) mClock.millis();
+		int gap = now - mLastKick;
+		if (gap > mLongestGap)
+			mLongestGap = gap;
+		mLastKick = now;
+
+		int overrun = now - (int) tick - mDeadline;
+		if (overrun <= 0)
+			return;
+		int b = 0;
+		while (b < LIMITS.length && overrun > LIMITS[b])
+			b++;
+		mHistogram[state][b]++;
+		mTotal[state] += overrun;
+		if (overrun > mMax[state])
+			mMax[state] = overrun;
+		mMisses++;
+	}
+
+	public int getMisses() {
+		return mMisses;
+	}
+
+	public int getStalls() {
+		return mStalls;
+	}
+
+	public void print(PrintStream out) {
+		// Dumps the misses, only after the run since it creates Strings.
+		out.println("Deadline: " + mDeadline + " ms, misses: " + mMisses + ", stalls: " + mStalls
+				+ ", longest gap: " + mLongestGap + " ms");
+		if (mMisses == 0)
+			return;
+		LoopStats.printHistogram(out, "Misses", mNames, LIMITS, mHistogram, mTotal, mMax);
+	}
+}
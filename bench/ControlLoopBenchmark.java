@@ -0,0 +1,133 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.ridgesoft.robotics.AnalogInput;
+import com.ridgesoft.robotics.Motor;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ControlLoopBenchmark {
+
+	// Cost of one call of the code run on every iteration of the control loop, on the
+	// stub devices. The numbers of a desktop JVM are far from those of the IntelliBrain,
+	// but a regression here is a regression there. Run with the gc profiler to see the
+	// allocation rate of each benchmark, which is what causes the pauses of the robot.
+	//
+	// Usage: java bench.ControlLoopBenchmark [JMH options]
+
+	private static final int READINGS = 256; // Length of the sequences of inputs, a power of 2.
+	private static final int DISPLAY_PERIOD = 100; // Minimum time between two refreshes of the LCD (ms).
+
+	private Object mFlameSensor;
+	private Motor mMotor;
+	private StubDisplay mLcd;
+	private Object mStatus;
+	private int[] mInputs = new int[Robot.INPUTS];
+	private long mNow;
+
+	private int[] mPowers = new int[READINGS];      // Powers in and out of the range of the servo.
+	private int[] mDistances = new int[READINGS];   // Distances to the right wall (mm).
+	private int mNext;
+
+	@Setup
+	public void setup() throws Throwable {
+		AnalogInput[] sensors = new AnalogInput[5];
+		for (int i = 0; i < sensors.length; i++)
+			sensors[i] = new StubAnalogInput(i, (i == 2 ? 500 : 250), 150);
+		mFlameSensor = Robot.newFlameSensor(sensors, 300, 1000);
+
+		mMotor = Robot.newServoMotor(new StubServo(), false, 14);
+		mLcd = new StubDisplay();
+		mStatus = Robot.newStatusDisplay(mLcd, DISPLAY_PERIOD, new String[] { "WAIT", "CENTER" }, 300);
+		Robot.install(mMotor, Robot.newServoMotor(new StubServo(), true, 14), mLcd, mFlameSensor);
+		Robot.prepareControl();
+
+		for (int i = 0; i < READINGS; i++) {
+			mPowers[i] = (i % 41) - 20;
+			mDistances[i] = 50 + (i * 37 % 400);
+		}
+	}
+
+	private int next() {
+		mNext = (mNext + 1) & (READINGS - 1);
+		return mNext;
+	}
+
+	@Benchmark
+	public int flameSensorScan() throws Throwable {
+		return Robot.scan(mFlameSensor);
+	}
+
+	@Benchmark
+	public void servoSetPower() {
+		mMotor.setPower(mPowers[next()]);
+	}
+
+	@Benchmark
+	public void move() throws Throwable {
+		int i = next();
+		Robot.move(9, mPowers[i] / 4);
+	}
+
+	@Benchmark
+	public void publishStatus() throws Throwable {
+		// What the control loop pays on every tick to hand its status to the display.
+		mNow += 10;
+		Robot.publish(mStatus, mNow, 1, true, mInputs);
+	}
+
+	@Benchmark
+	public String displayFlameSensorData() throws Throwable {
+		// Every status is a refresh period later, so the worst case where the line
+		// changes on every refresh is measured along with the formatting.
+		mInputs[Robot.FLAME_DIRECTION] = Robot.scan(mFlameSensor); // So that the values change like on the robot.
+		mInputs[Robot.FLAME_VALUE] = mDistances[next()];
+		mNow += DISPLAY_PERIOD;
+		Robot.publish(mStatus, mNow, 1, true, mInputs);
+		Robot.show(mStatus);
+		return mLcd.getLine(1);
+	}
+
+	@Benchmark
+	public String displayUnchanged() throws Throwable {
+		// The same text shown again is formatted but never sent to the LCD.
+		mNow += DISPLAY_PERIOD;
+		Robot.publish(mStatus, mNow, 1, true, mInputs);
+		Robot.show(mStatus);
+		return mLcd.getLine(1);
+	}
+
+	@Benchmark
+	public int proportionalControl() throws Throwable {
+		return Robot.proportionalDelta(mDistances[next()], 160);
+	}
+
+	public static void main(String[] args) throws Exception {
+		// Runs all the benchmarks with the gc profiler, the arguments are JMH options.
+		new Runner(new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.include(ControlLoopBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class)
+				.build()).run();
+	}
+}
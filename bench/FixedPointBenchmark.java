@@ -0,0 +1,76 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FixedPointBenchmark {
+
+	// The fixed-point control of RBv2019 against the float code it replaced, kept here
+	// as the reference. A desktop JVM has an FPU, so the gap on the IntelliBrain, which
+	// emulates every float operation, is much wider; the point is to see that the
+	// fixed-point path is never the slower one.
+	//
+	// Usage: java bench.FixedPointBenchmark [JMH options]
+
+	private static final int READINGS = 256; // Length of the sequences of inputs, a power of 2.
+	private static final float GAIN = 0.9f;
+	private static final int DELTA_LIMITE = 5;
+	private static final float ANGLE_TO_TIME_FACTOR = 7.5f;
+
+	private float[] mDistances = new float[READINGS];   // Distances to the wall (cm).
+	private int[] mDistancesMm = new int[READINGS];     // The same distances (mm).
+	private int[] mAngles = new int[READINGS];
+	private int mNext;
+
+	@Setup
+	public void setup() throws Throwable {
+		Robot.prepareControl(); // With the GAIN of RBv2019, the same as above.
+		for (int i = 0; i < READINGS; i++) {
+			mDistances[i] = 5 + (i * 37 % 400) / 10f;
+			mDistancesMm[i] = (int) (mDistances[i] * 10);
+			mAngles[i] = (i * 7) % 181;
+		}
+	}
+
+	private int next() {
+		mNext = (mNext + 1) & (READINGS - 1);
+		return mNext;
+	}
+
+	@Benchmark
+	public int proportionalFloat() {
+		int delta = (int) ((mDistances[next()] - 16) * GAIN);
+		return (delta > DELTA_LIMITE ? DELTA_LIMITE : delta);
+	}
+
+	@Benchmark
+	public int proportionalFixed() throws Throwable {
+		return Robot.proportionalDelta(mDistancesMm[next()], 160);
+	}
+
+	@Benchmark
+	public int angleToTimeFloat() {
+		return (int) (mAngles[next()] * ANGLE_TO_TIME_FACTOR);
+	}
+
+	@Benchmark
+	public int angleToTimeFixed() throws Throwable {
+		return Robot.angleToTime(mAngles[next()]);
+	}
+}
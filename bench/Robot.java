@@ -0,0 +1,158 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+import com.ridgesoft.io.Display;
+import com.ridgesoft.robotics.AnalogInput;
+import com.ridgesoft.robotics.Motor;
+import com.ridgesoft.robotics.Servo;
+
+final class Robot {
+
+	// Access to the robot classes, which are in the default package and so cannot be
+	// imported by the benchmarks. The handles are resolved once and kept in constants,
+	// so the JIT inlines the calls as if they were direct.
+
+	private static final Class<?> RB = load("RBv2019");
+	private static final Class<?> FLAME_SENSOR = load("NewWayFlameSensor");
+	private static final Class<?> LCD_BUFFER = load("LcdBuffer");
+	private static final Class<?> STATUS_DISPLAY = load("StatusDisplay");
+	private static final Class<?> INPUT_SAMPLER = load("InputSampler");
+
+	private static final MethodHandle MOVE = handle(RB, "move", int.class, int.class);
+	private static final MethodHandle PREPARE_CONTROL = handle(RB, "prepareControl");
+	private static final MethodHandle PROPORTIONAL_DELTA = handle(RB, "proportionalDelta", int.class, int.class);
+	private static final MethodHandle ANGLE_TO_TIME = handle(RB, "angleToTime", int.class);
+	private static final MethodHandle SCAN = handle(FLAME_SENSOR, "scan").asType(MethodType.methodType(int.class, Object.class));
+	private static final MethodHandle PUBLISH = handle(STATUS_DISPLAY, "publish", long.class, int.class,
+			boolean.class, int.class, boolean.class, int[].class).asType(MethodType.methodType(void.class,
+			Object.class, long.class, int.class, boolean.class, int.class, boolean.class, int[].class));
+	private static final MethodHandle SHOW = handle(STATUS_DISPLAY, "show")
+			.asType(MethodType.methodType(void.class, Object.class));
+
+	// Slots of the inputs published with the status.
+	static final int INPUTS = constant(INPUT_SAMPLER, "SIZE");
+	static final int FLAME_DIRECTION = constant(INPUT_SAMPLER, "FLAME_DIRECTION");
+	static final int FLAME_VALUE = constant(INPUT_SAMPLER, "FLAME_VALUE");
+
+	private Robot() {
+	}
+
+	// ================================================================================
+	// Wiring of the stubs.
+	// ================================================================================
+
+	static Object newFlameSensor(AnalogInput[] sensors, int isPresentLimit, int isNearLimit) {
+		try {
+			Constructor<?> c = FLAME_SENSOR.getConstructor(AnalogInput[].class, int.class, int.class);
+			return c.newInstance(sensors, isPresentLimit, isNearLimit);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static Motor newServoMotor(Servo servo, boolean reverse, int range) {
+		try {
+			Constructor<?> c = load("ContinuousRotationServo").getConstructor(Servo.class, boolean.class, int.class);
+			return (Motor) c.newInstance(servo, reverse, range);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static Object newStatusDisplay(Display lcd, int period, String[] titles, int flameLimit) {
+		// Without telemetry and never started, the benchmarks call it in place of its thread.
+		try {
+			Object buffer = LCD_BUFFER.getConstructor(Display.class, int.class).newInstance(lcd, period);
+			Constructor<?> c = STATUS_DISPLAY.getConstructor(LCD_BUFFER, load("Telemetry"), String[].class,
+					int.class, load("Clock"), int.class);
+			return c.newInstance(buffer, null, titles, flameLimit, null, period);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static void install(Motor left, Motor right, Display lcd, Object flameSensor) {
+		set("mLeftMotor", left);
+		set("mRightMotor", right);
+		set("mLcd", lcd);
+		set("mFlameSensor", flameSensor);
+	}
+
+	// ================================================================================
+	// Methods under test.
+	// ================================================================================
+
+	static int scan(Object flameSensor) throws Throwable {
+		return (int) SCAN.invokeExact(flameSensor);
+	}
+
+	static void move(int power, int delta) throws Throwable {
+		MOVE.invokeExact(power, delta);
+	}
+
+	static void publish(Object status, long now, int state, boolean showFlame, int[] inputs) throws Throwable {
+		PUBLISH.invokeExact(status, now, state, false, 0, showFlame, inputs);
+	}
+
+	static void show(Object status) throws Throwable {
+		SHOW.invokeExact(status);
+	}
+
+	static void prepareControl() throws Throwable {
+		PREPARE_CONTROL.invokeExact();
+	}
+
+	static int proportionalDelta(int distance, int target) throws Throwable {
+		return (int) PROPORTIONAL_DELTA.invokeExact(distance, target);
+	}
+
+	static int angleToTime(int angle) throws Throwable {
+		return (int) ANGLE_TO_TIME.invokeExact(angle);
+	}
+
+	// ================================================================================
+	// Reflection.
+	// ================================================================================
+
+	private static Class<?> load(String name) {
+		try {
+			return Class.forName(name);
+		} catch (ClassNotFoundException e) {
+			throw new IllegalStateException("The robot classes are not on the classpath", e);
+		}
+	}
+
+	private static MethodHandle handle(Class<?> c, String name, Class<?>... parameters) {
+		try {
+			Method m = c.getDeclaredMethod(name, parameters);
+			m.setAccessible(true);
+			return MethodHandles.lookup().unreflect(m);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static int constant(Class<?> c, String name) {
+		try {
+			return c.getField(name).getInt(null);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void set(String name, Object value) {
+		try {
+			Field f = RB.getDeclaredField(name);
+			f.setAccessible(true);
+			f.set(null, value);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
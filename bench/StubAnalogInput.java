@@ -0,0 +1,30 @@
+package bench;
+
+import java.util.Random;
+
+import com.ridgesoft.robotics.AnalogInput;
+
+final class StubAnalogInput implements AnalogInput {
+
+	// Plays back a fixed sequence of noisy readings, so that the benchmarks cannot
+	// fold the samples into constants and take every branch of the code under test.
+
+	private static final int SEQUENCE = 1024; // Length of the sequence, a power of 2.
+
+	private final int[] mValues = new int[SEQUENCE];
+	private int mNext;
+
+	StubAnalogInput(long seed, int mean, int noise) {
+		Random random = new Random(seed);
+		for (int i = 0; i < SEQUENCE; i++) {
+			int v = mean + (int) (random.nextGaussian() * noise);
+			mValues[i] = (v < 0 ? 0 : (v > 1023 ? 1023 : v));
+		}
+	}
+
+	public int sample() {
+		int v = mValues[mNext];
+		mNext = (mNext + 1) & (SEQUENCE - 1);
+		return v;
+	}
+}
@@ -0,0 +1,27 @@
+package bench;
+
+import com.ridgesoft.io.Display;
+
+final class StubDisplay implements Display {
+
+	// Keeps the text of each line. Keeping it is enough to make the formatting escape,
+	// so the benchmarks see the real cost of building the strings.
+
+	private final String[] mLines = new String[2];
+
+	public void print(int line, String text) {
+		mLines[line] = text;
+	}
+
+	public int getNumLines() {
+		return mLines.length;
+	}
+
+	public int getNumColumns() {
+		return 16;
+	}
+
+	String getLine(int line) {
+		return mLines[line];
+	}
+}
@@ -0,0 +1,22 @@
+package bench;
+
+import com.ridgesoft.robotics.Servo;
+
+final class StubServo implements Servo {
+
+	// Keeps the last position, which is as much as the servo port does.
+
+	private int mPosition = 50;
+
+	public void setPosition(int position) {
+		mPosition = position;
+	}
+
+	public int getPosition() {
+		return mPosition;
+	}
+
+	public void off() {
+		mPosition = -1;
+	}
+}
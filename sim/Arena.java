@@ -0,0 +1,283 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.StringTokenizer;
+
+public class Arena {
+
+	// Geometry of the arena in cm, with x to the right and y up.
+	// Headings are in radians, counterclockwise from the x axis.
+
+	public static final float LINE_WIDTH = 2.5f; // Width of the white lines across the doorways.
+
+	private float[] mWalls = new float[64];  // x1, y1, x2, y2 of each wall.
+	private int mTotalWalls;
+
+	private float[] mLines = new float[32];  // x1, y1, x2, y2 of each white line.
+	private int mTotalLines;
+
+	private float[] mRooms = new float[32];  // x1, y1, x2, y2 of the area of each room.
+	private int mTotalRooms;
+
+	private float mHomeX, mHomeY, mHomeRadius;         // White circle of the home.
+	private float mStartX, mStartY, mStartHeading;     // Start pose of the robot.
+	private float mCandleX, mCandleY;                  // Default position of the candle.
+
+	public void addWall(float x1, float y1, float x2, float y2) {
+		mWalls = add(mWalls, mTotalWalls++, x1, y1, x2, y2);
+	}
+
+	public void addLine(float x1, float y1, float x2, float y2) {
+		mLines = add(mLines, mTotalLines++, x1, y1, x2, y2);
+	}
+
+	public void addRoom(float x1, float y1, float x2, float y2) {
+		mRooms = add(mRooms, mTotalRooms++, x1, y1, x2, y2);
+	}
+
+	public void setHome(float x, float y, float radius) {
+		mHomeX = x;
+		mHomeY = y;
+		mHomeRadius = radius;
+	}
+
+	public void setStart(float x, float y, float heading) {
+		mStartX = x;
+		mStartY = y;
+		mStartHeading = heading;
+	}
+
+	public void setCandle(float x, float y) {
+		mCandleX = x;
+		mCandleY = y;
+	}
+
+	public float castRay(float x, float y, float heading, float range) {
+		// Returns the distance from (x, y) to the nearest wall in the given heading,
+		// or range if there is no wall closer than that.
+		float dx = (float) Math.cos(heading);
+		float dy = (float) Math.sin(heading);
+		float nearest = range;
+		for (int i = 0; i < mTotalWalls * 4; i += 4) {
+			float ex = mWalls[i + 2] - mWalls[i];
+			float ey = mWalls[i + 3] - mWalls[i + 1];
+			float den = dx * ey - dy * ex;
+			if (den == 0)
+				continue; // Parallel to the wall.
+			float wx = mWalls[i] - x;
+			float wy = mWalls[i + 1] - y;
+			float t = (wx * ey - wy * ex) / den; // Distance along the ray.
+			float u = (wx * dy - wy * dx) / den; // Position along the wall.
+			if (t >= 0 && t < nearest && u >= 0 && u <= 1)
+				nearest = t;
+		}
+		return nearest;
+	}
+
+	public boolean isVisible(float x1, float y1, float x2, float y2) {
+		// Returns true if no wall is in the way between the two points.
+		float dx = x2 - x1;
+		float dy = y2 - y1;
+		float d = (float) Math.sqrt(dx * dx + dy * dy);
+		if (d == 0)
+			return true;
+		return castRay(x1, y1, (float) Math.atan2(dy, dx), d) >= d;
+	}
+
+	public float distanceToWall(float x, float y) {
+		// Returns the distance from (x, y) to the nearest point of any wall.
+		float nearest = Float.MAX_VALUE;
+		for (int i = 0; i < mTotalWalls * 4; i += 4) {
+			float d = distanceToSegment(mWalls, i, x, y);
+			if (d < nearest)
+				nearest = d;
+		}
+		return nearest;
+	}
+
+	public float bearingToWall(float x, float y) {
+		// Returns the heading from (x, y) to the nearest point of any wall.
+		float nearest = Float.MAX_VALUE;
+		float bearing = 0;
+		for (int i = 0; i < mTotalWalls * 4; i += 4) {
+			float d = distanceToSegment(mWalls, i, x, y);
+			if (d < nearest) {
+				nearest = d;
+				float t = projection(mWalls, i, x, y);
+				float px = mWalls[i] + t * (mWalls[i + 2] - mWalls[i]);
+				float py = mWalls[i + 1] + t * (mWalls[i + 3] - mWalls[i + 1]);
+				bearing = (float) Math.atan2(py - y, px - x);
+			}
+		}
+		return bearing;
+	}
+
+	public boolean isWhite(float x, float y) {
+		// Returns true if the floor at (x, y) is white, that is, the home circle or a line.
+		float hx = x - mHomeX;
+		float hy = y - mHomeY;
+		if (hx * hx + hy * hy <= mHomeRadius * mHomeRadius)
+			return true;
+		for (int i = 0; i < mTotalLines * 4; i += 4)
+			if (distanceToSegment(mLines, i, x, y) <= LINE_WIDTH / 2)
+				return true;
+		return false;
+	}
+
+	public boolean isHome(float x, float y) {
+		float hx = x - mHomeX;
+		float hy = y - mHomeY;
+		return hx * hx + hy * hy <= mHomeRadius * mHomeRadius;
+	}
+
+	public int getRoom(float x, float y) {
+		// Returns the index of the room that contains (x, y), or -1 if it is in a corridor.
+		for (int i = 0; i < mTotalRooms; i++) {
+			int j = i * 4;
+			if (x >= mRooms[j] && x <= mRooms[j + 2] && y >= mRooms[j + 1] && y <= mRooms[j + 3])
+				return i;
+		}
+		return -1;
+	}
+
+	public int getTotalRooms() {
+		return mTotalRooms;
+	}
+
+	public float[] getRoomArea(int room) {
+		float[] r = new float[4];
+		System.arraycopy(mRooms, room * 4, r, 0, 4);
+		return r;
+	}
+
+	public float getStartX() {
+		return mStartX;
+	}
+
+	public float getStartY() {
+		return mStartY;
+	}
+
+	public float getStartHeading() {
+		return mStartHeading;
+	}
+
+	public float getCandleX() {
+		return mCandleX;
+	}
+
+	public float getCandleY() {
+		return mCandleY;
+	}
+
+	public static Arena createDefault() {
+		// An arena of 248 x 248 cm with three rooms on the sides, an island room in
+		// the middle and the home circle in the left corridor, beside the island.
+		Arena a = new Arena();
+		a.addWall(0, 0, 248, 0);
+		a.addWall(248, 0, 248, 248);
+		a.addWall(248, 248, 0, 248);
+		a.addWall(0, 248, 0, 0);
+
+		// Room 0, upper left, with the door at the top of the right side.
+		a.addWall(0, 170, 92, 170);
+		a.addWall(92, 170, 92, 202);
+		a.addLine(92, 202, 92, 248);
+		a.addRoom(0, 170, 92, 248);
+
+		// Room 1, upper right, with the door at the right of the bottom.
+		a.addWall(172, 170, 172, 248);
+		a.addWall(172, 170, 202, 170);
+		a.addLine(202, 170, 248, 170);
+		a.addRoom(172, 170, 248, 248);
+
+		// Room 2, lower right, with the door at the bottom of the left side.
+		a.addWall(172, 46, 172, 92);
+		a.addWall(172, 92, 248, 92);
+		a.addLine(172, 0, 172, 46);
+		a.addRoom(172, 0, 248, 92);
+
+		// Room 3, the island, with the door at the left of the bottom. The doors are
+		// where the robot following the right wall comes straight at them.
+		a.addWall(58, 116, 120, 116);
+		a.addWall(120, 116, 120, 50);
+		a.addWall(120, 50, 104, 50);
+		a.addWall(58, 50, 58, 116);
+		a.addLine(58, 50, 104, 50);
+		a.addRoom(58, 50, 120, 116);
+
+		a.setHome(26, 100, 15);
+		a.setStart(26, 100, (float) (Math.PI / 2));
+		a.setCandle(89, 85); // In the island, the last room on the route of the robot.
+		return a;
+	}
+
+	public static Arena load(String fileName) throws IOException {
+		// Reads an arena from a text file with one element per line:
+		//   wall x1 y1 x2 y2 | line x1 y1 x2 y2 | room x1 y1 x2 y2
+		//   home x y radius  | start x y heading(degrees) | candle x y
+		// Empty lines and lines starting with # are ignored.
+		Arena a = new Arena();
+		BufferedReader in = new BufferedReader(new FileReader(fileName));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				StringTokenizer st = new StringTokenizer(line);
+				if (!st.hasMoreTokens())
+					continue;
+				String kind = st.nextToken();
+				if (kind.startsWith("#"))
+					continue;
+				float[] v = new float[st.countTokens()];
+				for (int i = 0; i < v.length; i++)
+					v[i] = Float.parseFloat(st.nextToken());
+				if (kind.equals("wall"))
+					a.addWall(v[0], v[1], v[2], v[3]);
+				else if (kind.equals("line"))
+					a.addLine(v[0], v[1], v[2], v[3]);
+				else if (kind.equals("room"))
+					a.addRoom(v[0], v[1], v[2], v[3]);
+				else if (kind.equals("home"))
+					a.setHome(v[0], v[1], v[2]);
+				else if (kind.equals("start"))
+					a.setStart(v[0], v[1], (float) Math.toRadians(v[2]));
+				else if (kind.equals("candle"))
+					a.setCandle(v[0], v[1]);
+				else
+					throw new IOException("Unknown arena element: " + kind);
+			}
+		} finally {
+			in.close();
+		}
+		return a;
+	}
+
+	private static float[] add(float[] a, int n, float x1, float y1, float x2, float y2) {
+		if ((n + 1) * 4 > a.length) {
+			float[] b = new float[a.length * 2];
+			System.arraycopy(a, 0, b, 0, a.length);
+			a = b;
+		}
+		a[n * 4] = x1;
+		a[n * 4 + 1] = y1;
+		a[n * 4 + 2] = x2;
+		a[n * 4 + 3] = y2;
+		return a;
+	}
+
+	private static float distanceToSegment(float[] s, int i, float x, float y) {
+		float t = projection(s, i, x, y);
+		float dx = x - (s[i] + t * (s[i + 2] - s[i]));
+		float dy = y - (s[i + 1] + t * (s[i + 3] - s[i + 1]));
+		return (float) Math.sqrt(dx * dx + dy * dy);
+	}
+
+	private static float projection(float[] s, int i, float x, float y) {
+		// Position along segment i of the point closest to (x, y), from 0 to 1.
+		float ex = s[i + 2] - s[i];
+		float ey = s[i + 3] - s[i + 1];
+		float len = ex * ex + ey * ey;
+		float t = (len == 0 ? 0 : ((x - s[i]) * ex + (y - s[i + 1]) * ey) / len);
+		return (t < 0 ? 0 : (t > 1 ? 1 : t));
+	}
+}
@@ -0,0 +1,57 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class MappedLog implements TelemetryLog {
+
+	// Appends the frames to a memory-mapped file, so recording is a copy into memory
+	// and the operating system writes the pages out on its own. The file is mapped a
+	// region at a time and grows as the regions fill up.
+
+	private static final int REGION = 1 << 20; // Size of a mapped region (bytes).
+
+	private RandomAccessFile mFile;
+	private FileChannel mChannel;
+	private MappedByteBuffer mBuffer;
+	private long mRegionStart;
+	private int mFrameSize;
+
+	public MappedLog(String fileName, int frameSize) throws IOException {
+		mFrameSize = frameSize;
+		mFile = new RandomAccessFile(fileName, "rw");
+		mFile.setLength(0);
+		mChannel = mFile.getChannel();
+		map(0);
+		mBuffer.putInt(MAGIC);
+		mBuffer.putInt(frameSize);
+	}
+
+	public void append(byte[] frame) {
+		if (mBuffer.remaining() < mFrameSize) {
+			try {
+				map(mRegionStart + mBuffer.position());
+			} catch (IOException e) {
+				throw new RuntimeException("Cannot extend the telemetry log: " + e.getMessage());
+			}
+		}
+		mBuffer.put(frame, 0, mFrameSize);
+	}
+
+	public long getLength() {
+		return mRegionStart + mBuffer.position();
+	}
+
+	public void close() throws IOException {
+		// Cuts the file to the frames written, the rest of the last region is empty.
+		long length = getLength();
+		mBuffer.force();
+		mChannel.truncate(length);
+		mFile.close();
+	}
+
+	private void map(long start) throws IOException {
+		mRegionStart = start;
+		mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, start, REGION);
+	}
+}
@@ -0,0 +1,51 @@
+import java.lang.reflect.Field;
+
+public class Mission {
+
+	// Results of a mission, as returned by run().
+	public static final int OUTCOME = 0;
+	public static final int TIME = 1;
+	public static final int FLAME_OUT_TIME = 2;
+	public static final int COLLISIONS = 3;
+	public static final int TRAVELLED = 4;
+	public static final int MISSES = 5;
+
+	public static double[] run(String arenaFile, long seed, long timeLimit, float[] start, float[] candle,
+			float[] wheelGains, String[] names, double[] values) throws Exception {
+		// Runs one simulated mission with the tunable values of RBv2019 set to the given
+		// values. Only JDK types cross this method, so the tuner can call it through a
+		// class loader of its own: RBv2019 is static, and every loader has its own copy.
+		Arena arena = (arenaFile == null ? Arena.createDefault() : Arena.load(arenaFile));
+		for (int i = 0; i < names.length; i++) {
+			Field f = RBv2019.class.getDeclaredField(names[i]);
+			f.setAccessible(true);
+			if (f.getType() == float.class)
+				f.setFloat(null, (float) values[i]);
+			else
+				f.setInt(null, (int) Math.round(values[i]));
+		}
+
+		VirtualClock clock = new VirtualClock();
+		SimWorld world = new SimWorld(arena, clock, seed, timeLimit);
+		world.setPose(start[0], start[1], start[2]);
+		world.setCandle(candle[0], candle[1]);
+		world.setWheelGains(wheelGains[0], wheelGains[1]);
+		Simulator.install(world, false);
+
+		try {
+			RBv2019.run();
+		} catch (SimulationEnd e) {
+			// Mission over.
+		}
+		clock.stop(world.getOutcome());
+
+		double[] r = new double[6];
+		r[OUTCOME] = world.getOutcome();
+		r[TIME] = world.getTime();
+		r[FLAME_OUT_TIME] = world.getCandleOutTime();
+		r[COLLISIONS] = world.getCollisions();
+		r[TRAVELLED] = world.getTravelled();
+		r[MISSES] = RBv2019.mWatchdog.getMisses();
+		return r;
+	}
+}
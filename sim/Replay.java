@@ -0,0 +1,267 @@
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
+
+import com.ridgesoft.io.Display;
+import com.ridgesoft.robotics.AnalogInput;
+import com.ridgesoft.robotics.Motor;
+import com.ridgesoft.robotics.RangeFinder;
+
+public class Replay implements TelemetryLog {
+
+	// Runs RBv2019 on the inputs of a recorded telemetry log instead of devices, on a
+	// VirtualClock so it goes as fast as possible, and compares the frames it records
+	// with the recorded ones: state, maneuver, powers, direction of the flame and room.
+	//
+	// Usage: java Replay [-verbose] file...
+	// Prints the differences of each log and exits with 1 if any log differs, so a
+	// library of logs can be used as a regression suite.
+	//
+	// The frame being replayed is the next one to compare, so the state machine reads
+	// the inputs recorded at the end of the same iteration. The clock is driven by the
+	// times of the frames: after an iteration recorded late, the control loop is held
+	// back until the time of the next frame, as it was when recorded. A frame replayed
+	// at another time than recorded differs, like a tick that came in between two
+	// periods, which the Ticker of the loop never schedules. A log of the simulator
+	// replays exactly. A log of the robot may drift a little, since a sonar reading is
+	// taken at the next tick instead of when it was measured.
+
+	private static final int MAX_REPORTED = 10; // Differences printed per log, unless verbose.
+	private static final int TICK_PERIOD = 10;  // Period of the control loop of RBv2019 (ms).
+
+	private byte[][] mFrames;
+	private Clock mClock;
+	private int mCurrent;
+	private boolean mVerbose;
+	private int mDifferences;
+
+	private Replay(byte[][] frames, boolean verbose) {
+		mFrames = frames;
+		mVerbose = verbose;
+	}
+
+	public static int check(String fileName, boolean verbose) throws Exception {
+		// Replays one log and returns the number of frames that differ. RBv2019 is
+		// static, so every log must be replayed in a class loader of its own.
+		List<byte[]> frames = new ArrayList<byte[]>();
+		TelemetryReader in = new TelemetryReader(fileName);
+		byte[] f = new byte[Telemetry.FRAME_SIZE];
+		while (in.next(f)) {
+			frames.add(f);
+			f = new byte[Telemetry.FRAME_SIZE];
+		}
+		in.close();
+		if (frames.isEmpty())
+			return 0;
+
+		Replay replay = new Replay(frames.toArray(new byte[frames.size()][]), verbose);
+		VirtualClock clock = new VirtualClock();
+		replay.install(clock);
+		try {
+			RBv2019.run();
+		} catch (SimulationEnd e) {
+			// End of the log.
+		}
+		clock.stop(SimWorld.TIMEOUT);
+		return replay.mDifferences;
+	}
+
+	private void install(Clock clock) {
+		RBv2019.mLeftMotor = new ReplayMotor();
+		RBv2019.mRightMotor = new ReplayMotor();
+		RBv2019.mFan = new ReplayMotor();
+
+		RBv2019.mLeftSonar = new ReplaySonar(0);
+		RBv2019.mFrontSonar = new ReplaySonar(1);
+		RBv2019.mRightSonar = new ReplaySonar(2);
+
+		RBv2019.mLcd = new ReplayDisplay();
+
+		RBv2019.mLeftBumper = new ReplayPort(Telemetry.LEFT_BUMPER);
+		RBv2019.mRightBumper = new ReplayPort(Telemetry.RIGHT_BUMPER);
+		RBv2019.mStartButton = new ReplayPort(Telemetry.START_BUTTON);
+		RBv2019.mStopButton = new ReplayPort(Telemetry.STOP_BUTTON);
+		RBv2019.mFlameLED = new ReplayPort(0);
+
+		RBv2019.mLineSensor = new ReplayInput(Telemetry.LINE);
+		RBv2019.mUVTronSensor = new ReplayInput(Telemetry.UVTRON);
+		RBv2019.mAnalogSensors = new AnalogInput[5];
+		for (int i = 0; i < 5; i++)
+			RBv2019.mAnalogSensors[i] = new ReplayInput(Telemetry.FLAMES + 2 * i);
+
+		mClock = clock;
+		RBv2019.mClock = clock;
+		RBv2019.mTelemetryLog = this;
+	}
+
+	public void append(byte[] frame) {
+		// Called with the frame of every iteration, compares it with the recorded one,
+		// time included, then holds the loop back if the next one was recorded late.
+		byte[] r = mFrames[mCurrent];
+		int time = TelemetryReader.getInt(r, Telemetry.TIME);
+		int replayed = TelemetryReader.getInt(frame, Telemetry.TIME);
+		if (replayed != time || !same(frame, r)) {
+			if (mVerbose || mDifferences < MAX_REPORTED)
+				System.out.println("  " + time + " ms: expected " + describe(r) + ", replayed "
+						+ (replayed != time ? "at " + replayed + " ms " : "") + describe(frame));
+			mDifferences++;
+		}
+		if (++mCurrent == mFrames.length)
+			throw new SimulationEnd(SimWorld.TIMEOUT);
+
+		// The Ticker takes the time it wakes up at for the next tick when it is a period
+		// or more late, otherwise the scheduled one.
+		int gap = TelemetryReader.getInt(mFrames[mCurrent], Telemetry.TIME) - time;
+		if (gap >= 2 * TICK_PERIOD)
+			mClock.sleep(gap);
+	}
+
+	private static boolean same(byte[] a, byte[] b) {
+		if (a[Telemetry.STATE] != b[Telemetry.STATE])
+			return false;
+		if ((a[Telemetry.FLAGS] & Telemetry.MANEUVER) != (b[Telemetry.FLAGS] & Telemetry.MANEUVER))
+			return false;
+		for (int i = 0; i < 3; i++)
+			if (a[Telemetry.POWERS + i] != b[Telemetry.POWERS + i])
+				return false;
+		return a[Telemetry.DIRECTION] == b[Telemetry.DIRECTION] && a[Telemetry.ROOM] == b[Telemetry.ROOM];
+	}
+
+	private static String describe(byte[] f) {
+		return "state " + f[Telemetry.STATE]
+				+ (TelemetryReader.isSet(f, Telemetry.MANEUVER) ? " (maneuver)" : "")
+				+ " powers " + TelemetryReader.getPower(f, Telemetry.LEFT_MOTOR)
+				+ "/" + TelemetryReader.getPower(f, Telemetry.RIGHT_MOTOR)
+				+ "/" + TelemetryReader.getPower(f, Telemetry.FAN)
+				+ " direction " + f[Telemetry.DIRECTION] + " room " + f[Telemetry.ROOM];
+	}
+
+	private byte[] current() {
+		return mFrames[mCurrent];
+	}
+
+	// ================================================================================
+	// Stand-ins of the devices, they read the frame being replayed.
+	// ================================================================================
+
+	private class ReplaySonar implements RangeFinder {
+		private int mSonar;
+
+		ReplaySonar(int sonar) {
+			mSonar = sonar;
+		}
+
+		public void ping() {
+		}
+
+		public float getDistanceCm() {
+			return TelemetryReader.getSonar(current(), mSonar);
+		}
+
+		public float getDistanceInches() {
+			return getDistanceCm() / 2.54f;
+		}
+	}
+
+	private class ReplayInput implements AnalogInput {
+		private int mOffset;
+
+		ReplayInput(int offset) {
+			mOffset = offset; // Offset of the value in the frame.
+		}
+
+		public int sample() {
+			return TelemetryReader.getShort(current(), mOffset);
+		}
+	}
+
+	private class ReplayPort implements DigitalPort {
+		private int mFlag;
+
+		ReplayPort(int flag) {
+			mFlag = flag; // Flag of the input in the frame, 0 for an output.
+		}
+
+		public boolean isSet() {
+			return TelemetryReader.isSet(current(), mFlag);
+		}
+
+		public void set() {
+		}
+
+		public void clear() {
+		}
+	}
+
+	private static class ReplayMotor implements Motor {
+		// The powers are compared through the frames recorded by the telemetry.
+		public void setPower(int power) {
+		}
+
+		public void brake() {
+		}
+
+		public void stop() {
+		}
+	}
+
+	private static class ReplayDisplay implements Display {
+		public void print(int line, String text) {
+		}
+
+		public int getNumLines() {
+			return 2;
+		}
+
+		public int getNumColumns() {
+			return 16;
+		}
+	}
+
+	// ================================================================================
+	// Batch of logs.
+	// ================================================================================
+
+	public static void main(String[] args) throws Exception {
+		boolean verbose = false;
+		List<String> files = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-verbose"))
+				verbose = true;
+			else
+				files.add(args[i]);
+		}
+
+		// The sonar sampler ends with the replay, possibly in a loader of its own.
+		Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+			public void uncaughtException(Thread t, Throwable e) {
+				if (!e.getClass().getName().equals("SimulationEnd"))
+					e.printStackTrace();
+			}
+		});
+
+		StringTokenizer st = new StringTokenizer(System.getProperty("java.class.path"), File.pathSeparator);
+		List<URL> urls = new ArrayList<URL>();
+		while (st.hasMoreTokens())
+			urls.add(new File(st.nextToken()).toURI().toURL());
+
+		int failed = 0;
+		for (String file : files) {
+			System.out.println(file);
+			long start = System.currentTimeMillis();
+			ClassLoader loader = new URLClassLoader(urls.toArray(new URL[urls.size()]),
+					ClassLoader.getPlatformClassLoader());
+			int differences = (Integer) loader.loadClass("Replay").getMethod("check", String.class, boolean.class)
+					.invoke(null, file, verbose);
+			System.out.println("  " + (differences == 0 ? "same" : differences + " frames differ") + " ("
+					+ (System.currentTimeMillis() - start) + " ms)");
+			if (differences > 0)
+				failed++;
+		}
+		System.out.println(failed + " of " + files.size() + " logs differ");
+		System.exit(failed > 0 ? 1 : 0);
+	}
+}
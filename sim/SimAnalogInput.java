@@ -0,0 +1,30 @@
+import com.ridgesoft.robotics.AnalogInput;
+
+public class SimAnalogInput implements AnalogInput {
+
+	// Kinds of analog sensors.
+	public static final int FLAME = 0;
+	public static final int LINE = 1;
+	public static final int UVTRON = 2;
+
+	private SimWorld mWorld;
+	private int mKind;
+	private int mIndex;
+
+	public SimAnalogInput(SimWorld world, int kind, int index) {
+		mWorld = world;
+		mKind = kind;   // Kind of sensor.
+		mIndex = index; // Index of the flame sensor, from the far right.
+	}
+
+	public int sample() {
+		switch (mKind) {
+		case FLAME:
+			return mWorld.sampleFlame(mIndex);
+		case LINE:
+			return mWorld.sampleLine();
+		default:
+			return mWorld.sampleUVTron();
+		}
+	}
+}
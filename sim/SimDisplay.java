@@ -0,0 +1,30 @@
+import com.ridgesoft.io.Display;
+
+public class SimDisplay implements Display {
+	private SimWorld mWorld;
+	private String[] mLines = new String[2];
+	private boolean mEcho;
+
+	public SimDisplay(SimWorld world, boolean echo) {
+		mWorld = world;
+		mEcho = echo; // Print the changes of the state line of the LCD on the console.
+	}
+
+	public void print(int line, String text) {
+		if (mEcho && line == 0 && !text.equals(mLines[line]))
+			System.out.println(mWorld.getTime() + " ms LCD" + line + ": " + text);
+		mLines[line] = text;
+	}
+
+	public int getNumLines() {
+		return mLines.length;
+	}
+
+	public int getNumColumns() {
+		return 16;
+	}
+
+	public String getLine(int line) {
+		return mLines[line];
+	}
+}
@@ -0,0 +1,21 @@
+import com.ridgesoft.robotics.Motor;
+
+public class SimFan implements Motor {
+	private SimWorld mWorld;
+
+	public SimFan(SimWorld world) {
+		mWorld = world;
+	}
+
+	public void setPower(int power) {
+		mWorld.setFan(power);
+	}
+
+	public void brake() {
+		mWorld.setFan(0);
+	}
+
+	public void stop() {
+		mWorld.setFan(0);
+	}
+}
@@ -0,0 +1,43 @@
+
+public class SimPort implements DigitalPort {
+
+	// Kinds of digital ports.
+	public static final int LEFT_BUMPER = 0;
+	public static final int RIGHT_BUMPER = 1;
+	public static final int START_BUTTON = 2;
+	public static final int STOP_BUTTON = 3;
+	public static final int OUTPUT = 4;
+
+	private SimWorld mWorld;
+	private int mKind;
+	private boolean mOutput;
+
+	public SimPort(SimWorld world, int kind) {
+		mWorld = world;
+		mKind = kind;
+	}
+
+	public boolean isSet() {
+		// The bumpers and the buttons have pull-ups, so they read low when pressed.
+		switch (mKind) {
+		case LEFT_BUMPER:
+			return mWorld.isBumperFree(false);
+		case RIGHT_BUMPER:
+			return mWorld.isBumperFree(true);
+		case START_BUTTON:
+			return mWorld.isStartButtonFree();
+		case STOP_BUTTON:
+			return true;
+		default:
+			return mOutput;
+		}
+	}
+
+	public void set() {
+		mOutput = true;
+	}
+
+	public void clear() {
+		mOutput = false;
+	}
+}
@@ -0,0 +1,26 @@
+import com.ridgesoft.robotics.Servo;
+
+public class SimServo implements Servo {
+	private SimWorld mWorld;
+	private boolean mRight;
+	private int mPosition;
+
+	public SimServo(SimWorld world, boolean right) {
+		mWorld = world;
+		mRight = right; // The servo of the right wheel is mounted mirrored.
+		mPosition = SimWorld.NEUTRAL;
+	}
+
+	public void setPosition(int position) {
+		mPosition = position;
+		mWorld.setServo(mRight, position);
+	}
+
+	public int getPosition() {
+		return mPosition;
+	}
+
+	public void off() {
+		mWorld.setServo(mRight, -1);
+	}
+}
@@ -0,0 +1,26 @@
+import com.ridgesoft.robotics.RangeFinder;
+
+public class SimSonar implements RangeFinder {
+	private SimWorld mWorld;
+	private float mHeading;
+	private float mDistance;
+
+	public SimSonar(SimWorld world, float heading) {
+		mWorld = world;
+		mHeading = heading; // Heading of the sonar relative to the robot (degrees).
+		mDistance = -1;
+	}
+
+	public void ping() {
+		// The echo is measured at the time of the ping.
+		mDistance = mWorld.measureDistance(mHeading);
+	}
+
+	public float getDistanceCm() {
+		return mDistance;
+	}
+
+	public float getDistanceInches() {
+		return (mDistance < 0 ? mDistance : mDistance / 2.54f);
+	}
+}
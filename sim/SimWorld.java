@@ -0,0 +1,319 @@
+import java.util.Random;
+
+public class SimWorld {
+
+	// ================================================================================
+	// Model of the robot.
+	// ================================================================================
+
+	public static final float RADIUS = 10f;           // Radius of the robot (cm).
+	public static final float WHEEL_BASE = 14f;       // Distance between the wheels (cm).
+	public static final float MAX_WHEEL_SPEED = 57f;  // Wheel speed at the end of the servo range (cm/s).
+	public static final int SERVO_RANGE = 14;         // Servo positions from neutral to full speed.
+	public static final int NEUTRAL = 50;             // Servo position that stops the wheel.
+	public static final float LINE_SENSOR_OFFSET = 8f; // Distance from the center to the line sensor (cm).
+	public static final float SONAR_RANGE = 300f;     // Maximum range of the sonars (cm).
+	public static final int STEP = 5;                 // Integration step of the model (ms).
+
+	// Headings of the flame sensors relative to the robot, from the far right to the far
+	// left, as wired on the robot.
+	public static final float[] FLAME_SENSOR_HEADINGS = { -60, -30, 0, 30, 60 };
+
+	public static final float FLAME_RANGE = 60f;      // Distance at which the flame saturates the sensors (cm).
+	public static final float FAN_RANGE = 40f;        // Maximum distance to put out the flame (cm).
+	public static final int FAN_TIME = 1000;          // Time the fan must blow on the flame (ms).
+
+	public static final int START_PRESS = 500;        // Time at which the start button is pressed (ms).
+	public static final int HOME_TIME = 500;          // Time the robot must stay stopped on the home circle (ms).
+
+	// Outcomes of the mission.
+	public static final int RUNNING = 0;
+	public static final int SUCCESS = 1;              // Flame put out and robot stopped on the home circle for HOME_TIME.
+	public static final int TIMEOUT = 2;              // Time limit reached.
+
+	private Arena mArena;
+	private Clock mClock;
+	private Random mRandom;
+
+	private float mX, mY, mHeading;   // Pose of the robot.
+	private int mLeftPosition = -1;   // Servo positions, -1 when the servo is off.
+	private int mRightPosition = -1;
+	private float mLeftGain = 1f;     // Mismatch between the wheels.
+	private float mRightGain = 1f;
+	private int mFanPower;
+
+	private float mCandleX, mCandleY;
+	private boolean mCandleLit = true;
+	private int mBlowTime;
+	private long mCandleOutTime = -1;
+	private long mHomeSince = -1;     // Time since which the robot is stopped on the home circle, -1 if not.
+
+	private boolean mLeftContact, mRightContact, mContact;
+	private int mCollisions;
+	private float mTravelled;
+
+	private long mStartTime;
+	private long mTime;
+	private long mTimeLimit;
+	private int mOutcome = RUNNING;
+
+	public SimWorld(Arena arena, Clock clock, long seed, long timeLimit) {
+		mArena = arena;
+		mClock = clock;
+		mRandom = new Random(seed);
+		mTimeLimit = timeLimit;
+
+		mX = arena.getStartX();
+		mY = arena.getStartY();
+		mHeading = arena.getStartHeading();
+		mCandleX = arena.getCandleX();
+		mCandleY = arena.getCandleY();
+
+		mStartTime = clock.millis();
+		mTime = 0;
+	}
+
+	public void setPose(float x, float y, float heading) {
+		mX = x;
+		mY = y;
+		mHeading = heading;
+	}
+
+	public void setCandle(float x, float y) {
+		mCandleX = x;
+		mCandleY = y;
+	}
+
+	public void setWheelGains(float left, float right) {
+		mLeftGain = left;
+		mRightGain = right;
+	}
+
+	// ================================================================================
+	// Time.
+	// ================================================================================
+
+	public Clock getClock() {
+		return mClock;
+	}
+
+	public long now() {
+		return mClock.millis() - mStartTime;
+	}
+
+	public synchronized long advance() {
+		// Brings the model up to the current time. Every device calls it before it is
+		// used, so the model is always integrated up to the moment it is observed.
+		long now = now();
+		while (mOutcome == RUNNING && mTime + STEP <= now) {
+			integrate(STEP / 1000f);
+			mTime += STEP;
+
+			if (!mCandleLit && isStoppedHome()) {
+				if (mHomeSince < 0)
+					mHomeSince = mTime;
+				if (mTime - mHomeSince >= HOME_TIME)
+					mOutcome = SUCCESS;
+			} else
+				mHomeSince = -1;
+			if (mOutcome == RUNNING && mTime >= mTimeLimit)
+				mOutcome = TIMEOUT;
+		}
+		if (mOutcome != RUNNING)
+			throw new SimulationEnd(mOutcome);
+		return mTime;
+	}
+
+	private boolean isStoppedHome() {
+		// The robot is home while it is stopped with the line sensor on the circle: it
+		// only sees the circle there, and its center may still be outside. It must stay
+		// so for HOME_TIME, the wheels also stop for an instant between two steps of a
+		// maneuver.
+		if (wheelSpeed(mLeftPosition, false) != 0 || wheelSpeed(mRightPosition, true) != 0)
+			return false;
+		float x = mX + LINE_SENSOR_OFFSET * (float) Math.cos(mHeading);
+		float y = mY + LINE_SENSOR_OFFSET * (float) Math.sin(mHeading);
+		return mArena.isHome(x, y);
+	}
+
+	private void integrate(float dt) {
+		float vl = wheelSpeed(mLeftPosition, false) * mLeftGain;
+		float vr = wheelSpeed(mRightPosition, true) * mRightGain;
+		float v = (vl + vr) / 2;
+		float w = (vr - vl) / WHEEL_BASE;
+
+		mHeading += w * dt;
+		float nx = mX + v * dt * (float) Math.cos(mHeading);
+		float ny = mY + v * dt * (float) Math.sin(mHeading);
+		if (mArena.distanceToWall(nx, ny) >= RADIUS) {
+			mTravelled += Math.abs(v * dt);
+			mX = nx;
+			mY = ny;
+		}
+
+		// Contacts with the walls, only the front half has bumpers.
+		boolean contact = mArena.distanceToWall(mX, mY) < RADIUS + 0.5f;
+		mLeftContact = false;
+		mRightContact = false;
+		if (contact) {
+			float b = angle(mArena.bearingToWall(mX, mY) - mHeading);
+			float limit = (float) Math.toRadians(15);
+			mLeftContact = (b > -limit && b < Math.PI / 2);
+			mRightContact = (b < limit && b > -Math.PI / 2);
+		}
+		if (contact && !mContact)
+			mCollisions++;
+		mContact = contact;
+
+		// The flame goes out after the fan blows on it for long enough.
+		if (mCandleLit && mFanPower > 0) {
+			float dx = mCandleX - mX;
+			float dy = mCandleY - mY;
+			float off = angle((float) Math.atan2(dy, dx) - mHeading);
+			if (Math.sqrt(dx * dx + dy * dy) < FAN_RANGE && Math.abs(off) < Math.toRadians(30)) {
+				mBlowTime += (int) (dt * 1000);
+				if (mBlowTime >= FAN_TIME) {
+					mCandleLit = false;
+					mCandleOutTime = mTime;
+				}
+			}
+		}
+	}
+
+	private static float wheelSpeed(int position, boolean mirrored) {
+		if (position < 0)
+			return 0;
+		int offset = (mirrored ? NEUTRAL - position : position - NEUTRAL);
+		if (offset > SERVO_RANGE)
+			offset = SERVO_RANGE;
+		else if (offset < -SERVO_RANGE)
+			offset = -SERVO_RANGE;
+		return offset * MAX_WHEEL_SPEED / SERVO_RANGE;
+	}
+
+	private static float angle(float a) {
+		// Normalizes the angle to the range -PI..PI.
+		while (a > Math.PI)
+			a -= 2 * Math.PI;
+		while (a < -Math.PI)
+			a += 2 * Math.PI;
+		return a;
+	}
+
+	// ================================================================================
+	// Sensors and actuators, used by the devices.
+	// ================================================================================
+
+	synchronized void setServo(boolean right, int position) {
+		advance();
+		if (right)
+			mRightPosition = position;
+		else
+			mLeftPosition = position;
+	}
+
+	synchronized void setFan(int power) {
+		advance();
+		mFanPower = power;
+	}
+
+	synchronized float measureDistance(float heading) {
+		// Distance from the edge of the robot to the nearest wall, as seen by a sonar
+		// with a beam of about 20 degrees. Returns -1 if there is no echo.
+		advance();
+		float h = mHeading + (float) Math.toRadians(heading);
+		float d = SONAR_RANGE;
+		for (int i = -1; i <= 1; i++) {
+			float r = mArena.castRay(mX, mY, h + i * (float) Math.toRadians(10), SONAR_RANGE);
+			if (r < d)
+				d = r;
+		}
+		if (d >= SONAR_RANGE)
+			return -1;
+		return d - RADIUS + (float) mRandom.nextGaussian() * 0.5f;
+	}
+
+	synchronized int sampleFlame(int sensor) {
+		// Radiation of the candle seen by a flame sensor, from 0 to 1023.
+		advance();
+		int v = 20 + (int) (mRandom.nextGaussian() * 5);
+		if (mCandleLit && mArena.isVisible(mX, mY, mCandleX, mCandleY)) {
+			float dx = mCandleX - mX;
+			float dy = mCandleY - mY;
+			float d = (float) Math.sqrt(dx * dx + dy * dy);
+			float off = angle((float) Math.atan2(dy, dx) - mHeading
+					- (float) Math.toRadians(FLAME_SENSOR_HEADINGS[sensor]));
+			if (Math.abs(off) < Math.PI / 2) {
+				float c = (float) Math.cos(off);
+				float near = (d < FLAME_RANGE ? 1 : (FLAME_RANGE * FLAME_RANGE) / (d * d));
+				v += (int) (1023 * near * c * c * c * c);
+			}
+		}
+		return (v < 0 ? 0 : (v > 1023 ? 1023 : v));
+	}
+
+	synchronized int sampleLine() {
+		// Reflection of the floor under the line sensor, low on white.
+		advance();
+		float x = mX + LINE_SENSOR_OFFSET * (float) Math.cos(mHeading);
+		float y = mY + LINE_SENSOR_OFFSET * (float) Math.sin(mHeading);
+		int v = (mArena.isWhite(x, y) ? 40 : 700);
+		return v + (int) (mRandom.nextGaussian() * 10);
+	}
+
+	synchronized int sampleUVTron() {
+		// The UVTron sees the flame anywhere in line of sight.
+		advance();
+		return (mCandleLit && mArena.isVisible(mX, mY, mCandleX, mCandleY) ? 1 : 0);
+	}
+
+	synchronized boolean isBumperFree(boolean right) {
+		advance();
+		return !(right ? mRightContact : mLeftContact);
+	}
+
+	synchronized boolean isStartButtonFree() {
+		long t = advance();
+		return !(t >= START_PRESS && t < START_PRESS + 200);
+	}
+
+	// ================================================================================
+	// Results.
+	// ================================================================================
+
+	public synchronized int getOutcome() {
+		return mOutcome;
+	}
+
+	public synchronized long getTime() {
+		return mTime;
+	}
+
+	public synchronized long getCandleOutTime() {
+		return mCandleOutTime;
+	}
+
+	public synchronized int getCollisions() {
+		return mCollisions;
+	}
+
+	public synchronized float getTravelled() {
+		return mTravelled;
+	}
+
+	public synchronized float getX() {
+		return mX;
+	}
+
+	public synchronized float getY() {
+		return mY;
+	}
+
+	public synchronized float getHeading() {
+		return mHeading;
+	}
+
+	public synchronized int getRoom() {
+		return mArena.getRoom(mX, mY);
+	}
+}
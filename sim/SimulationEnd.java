@@ -0,0 +1,15 @@
+
+public class SimulationEnd extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	private int mOutcome;
+
+	public SimulationEnd(int outcome) {
+		super("Simulation ended");
+		mOutcome = outcome; // One of the outcomes of SimWorld.
+	}
+
+	public int getOutcome() {
+		return mOutcome;
+	}
+}
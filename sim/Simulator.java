@@ -0,0 +1,148 @@
+import com.ridgesoft.robotics.AnalogInput;
+
+public class Simulator {
+
+	// Runs the unchanged RBv2019 state machine on a simulated robot.
+	// Usage: java Simulator [-arena file] [-seed n] [-limit seconds] [-quiet] [-realtime] [-stats] [-map]
+	//                 [-record file]
+	//
+	// By default the simulation runs on a VirtualClock, as fast as possible and with
+	// the same results for the same seed. With -realtime it runs on the WallClock, with
+	// the threads on all the processors of the host, and the snapshots locked.
+
+	public static void install(SimWorld world, boolean echo) {
+		// Replaces the IntelliBrain hardware of RBv2019 by the simulated devices,
+		// wired as in RBv2019.main(), and its clock by the clock of the world.
+		ContinuousRotationServo leftServo = new ContinuousRotationServo(new SimServo(world, false), false, RBv2019.WHEEL_RANGE);
+		ContinuousRotationServo rightServo = new ContinuousRotationServo(new SimServo(world, true), true, RBv2019.WHEEL_RANGE);
+		leftServo.setRamp(RBv2019.WHEEL_RAMP);
+		rightServo.setRamp(RBv2019.WHEEL_RAMP);
+		RBv2019.mLeftMotor = leftServo;
+		RBv2019.mRightMotor = rightServo;
+
+		RBv2019.mLeftSonar = new SimSonar(world, 90);
+		RBv2019.mFrontSonar = new SimSonar(world, 0);
+		RBv2019.mRightSonar = new SimSonar(world, -90);
+
+		RBv2019.mLcd = new SimDisplay(world, echo);
+
+		RBv2019.mLeftBumper = new SimPort(world, SimPort.LEFT_BUMPER);
+		RBv2019.mRightBumper = new SimPort(world, SimPort.RIGHT_BUMPER);
+
+		RBv2019.mLineSensor = new SimAnalogInput(world, SimAnalogInput.LINE, 0);
+
+		RBv2019.mStartButton = new SimPort(world, SimPort.START_BUTTON);
+		RBv2019.mStopButton = new SimPort(world, SimPort.STOP_BUTTON);
+
+		RBv2019.mAnalogSensors = new AnalogInput[5];
+		for (int i = 0; i < 5; i++)
+			RBv2019.mAnalogSensors[i] = new SimAnalogInput(world, SimAnalogInput.FLAME, i);
+
+		RBv2019.mFan = new SimFan(world);
+
+		RBv2019.mFlameLED = new SimPort(world, SimPort.OUTPUT);
+
+		RBv2019.mUVTronSensor = new SimAnalogInput(world, SimAnalogInput.UVTRON, 0);
+
+		RBv2019.mClock = world.getClock();
+		if (!(world.getClock() instanceof VirtualClock))
+			RBv2019.mClock = endOnSleep(world);
+	}
+
+	private static Clock endOnSleep(final SimWorld world) {
+		// The control loop only reads what the samplers published, and the VirtualClock
+		// ends it with them. On the WallClock every sleep looks at the world instead, and
+		// ends the thread with a SimulationEnd once the mission is over.
+		final Clock clock = world.getClock();
+		return new Clock() {
+			public long millis() {
+				return clock.millis();
+			}
+
+			public void sleep(int ms) {
+				clock.sleep(ms);
+				world.advance();
+			}
+
+			public void start(Runnable task, int priority) {
+				clock.start(task, priority);
+			}
+		};
+	}
+
+	public static void main(String[] args) throws Exception {
+		Arena arena = null;
+		long seed = 1;
+		long limit = 300;
+		boolean echo = true;
+		boolean realTime = false;
+		boolean stats = false;
+		boolean map = false;
+		String record = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-arena"))
+				arena = Arena.load(args[++i]);
+			else if (args[i].equals("-seed"))
+				seed = Long.parseLong(args[++i]);
+			else if (args[i].equals("-limit"))
+				limit = Long.parseLong(args[++i]);
+			else if (args[i].equals("-quiet"))
+				echo = false;
+			else if (args[i].equals("-realtime"))
+				realTime = true;
+			else if (args[i].equals("-stats"))
+				stats = true;
+			else if (args[i].equals("-map"))
+				map = true;
+			else if (args[i].equals("-record"))
+				record = args[++i];
+		}
+		if (arena == null)
+			arena = Arena.createDefault();
+
+		Clock clock = (realTime ? (Clock) new WallClock() : new VirtualClock());
+		Snapshot.mLocked = realTime; // The VirtualClock runs one thread at a time.
+		SimWorld world = new SimWorld(arena, clock, seed, limit * 1000);
+		long start = System.currentTimeMillis();
+		install(world, echo);
+		MappedLog log = null;
+		if (record != null) {
+			log = new MappedLog(record, Telemetry.FRAME_SIZE);
+			RBv2019.mTelemetryLog = log;
+		}
+
+		// The end of the simulation is signaled by an exception from any device,
+		// possibly in the thread of the sonar sampler.
+		Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+			public void uncaughtException(Thread t, Throwable e) {
+				if (!(e instanceof SimulationEnd))
+					e.printStackTrace();
+			}
+		});
+
+		try {
+			RBv2019.run();
+		} catch (SimulationEnd e) {
+			// Mission over.
+		}
+		if (clock instanceof VirtualClock)
+			((VirtualClock) clock).stop(world.getOutcome());
+		if (log != null)
+			log.close();
+
+		System.out.println("Outcome:    " + (world.getOutcome() == SimWorld.SUCCESS ? "success" : "timeout"));
+		System.out.println("Time:       " + world.getTime() + " ms");
+		System.out.println("Flame out:  " + world.getCandleOutTime() + " ms");
+		System.out.println("Collisions: " + world.getCollisions());
+		System.out.println("Travelled:  " + (int) world.getTravelled() + " cm");
+		System.out.println("Misses:     " + RBv2019.mWatchdog.getMisses() + ", stalls: " + RBv2019.mWatchdog.getStalls());
+		System.out.println("Run time:   " + (System.currentTimeMillis() - start) + " ms");
+		if (stats) {
+			RBv2019.mStats.print(System.out);
+			RBv2019.mWatchdog.print(System.out);
+		}
+		if (map)
+			RBv2019.mMap.print(System.out);
+		System.exit(0);
+	}
+}
@@ -0,0 +1,138 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+
+public class TelemetryReader {
+
+	// Reads the frames of a telemetry log, either a file written by MappedLog or the
+	// hex dump of a RingLog captured from the console of the robot. Other lines of
+	// the console before the dump are skipped.
+	//
+	// Usage: java TelemetryReader file
+	// Prints the frames as text, one per line.
+
+	private DataInputStream mBinary;
+	private BufferedReader mHex;
+	private int mFrameSize;
+
+	public TelemetryReader(String fileName) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(fileName));
+		DataInputStream data = new DataInputStream(in);
+		int magic = data.readInt();
+		if (magic == TelemetryLog.MAGIC) {
+			mBinary = data;
+			mFrameSize = data.readInt();
+		} else {
+			data.close();
+			openHex(fileName);
+		}
+		if (mFrameSize != Telemetry.FRAME_SIZE)
+			throw new IOException("Unexpected frame size " + mFrameSize + " in " + fileName);
+	}
+
+	private void openHex(String fileName) throws IOException {
+		mHex = new BufferedReader(new FileReader(fileName));
+		String header = hex(TelemetryLog.MAGIC);
+		String line;
+		while ((line = mHex.readLine()) != null) {
+			line = line.trim();
+			if (line.length() == 16 && line.startsWith(header)) {
+				mFrameSize = (int) Long.parseLong(line.substring(8), 16);
+				return;
+			}
+		}
+		throw new IOException("No telemetry in " + fileName);
+	}
+
+	public boolean next(byte[] frame) throws IOException {
+		// Reads the next frame, returns false at the end of the log.
+		if (mBinary != null) {
+			try {
+				mBinary.readFully(frame, 0, mFrameSize);
+				return true;
+			} catch (EOFException e) {
+				return false;
+			}
+		}
+		String line = mHex.readLine();
+		if (line == null)
+			return false;
+		line = line.trim();
+		if (line.length() != mFrameSize * 2)
+			return false; // End of the dump.
+		for (int i = 0; i < mFrameSize; i++)
+			frame[i] = (byte) Integer.parseInt(line.substring(2 * i, 2 * i + 2), 16);
+		return true;
+	}
+
+	public void close() throws IOException {
+		if (mBinary != null)
+			mBinary.close();
+		else
+			mHex.close();
+	}
+
+	// ================================================================================
+	// Fields of a frame, see Telemetry for the layout.
+	// ================================================================================
+
+	public static int getInt(byte[] f, int i) {
+		return (f[i] << 24) | ((f[i + 1] & 0xff) << 16) | ((f[i + 2] & 0xff) << 8) | (f[i + 3] & 0xff);
+	}
+
+	public static int getShort(byte[] f, int i) {
+		return (short) ((f[i] << 8) | (f[i + 1] & 0xff));
+	}
+
+	public static float getSonar(byte[] f, int sonar) {
+		return Float.intBitsToFloat(getInt(f, Telemetry.SONARS + 4 * sonar));
+	}
+
+	public static int getFlame(byte[] f, int sensor) {
+		return getShort(f, Telemetry.FLAMES + 2 * sensor);
+	}
+
+	public static int getPower(byte[] f, int motor) {
+		return f[Telemetry.POWERS + motor];
+	}
+
+	public static boolean isSet(byte[] f, int flag) {
+		return (f[Telemetry.FLAGS] & flag) != 0;
+	}
+
+	private static String hex(int v) {
+		String s = Integer.toHexString(v);
+		while (s.length() < 8)
+			s = "0" + s;
+		return s;
+	}
+
+	public static void main(String[] args) throws IOException {
+		TelemetryReader in = new TelemetryReader(args[0]);
+		byte[] f = new byte[Telemetry.FRAME_SIZE];
+		System.out.println("time state flags left front right flame1..5 line uv powers(l,r,fan) dir room");
+		while (in.next(f)) {
+			StringBuffer sb = new StringBuffer();
+			sb.append(getInt(f, Telemetry.TIME)).append(' ');
+			sb.append(f[Telemetry.STATE]).append(' ');
+			sb.append(Integer.toHexString(f[Telemetry.FLAGS] & 0xff));
+			for (int i = 0; i < 3; i++)
+				sb.append(' ').append(getSonar(f, i));
+			for (int i = 0; i < 5; i++)
+				sb.append(' ').append(getFlame(f, i));
+			sb.append(' ').append(getShort(f, Telemetry.LINE));
+			sb.append(' ').append(getShort(f, Telemetry.UVTRON));
+			for (int i = 0; i < 3; i++)
+				sb.append(' ').append(getPower(f, i));
+			sb.append(' ').append(f[Telemetry.DIRECTION]);
+			sb.append(' ').append(f[Telemetry.ROOM]);
+			System.out.println(sb.toString());
+		}
+		in.close();
+	}
+}
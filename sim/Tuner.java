@@ -0,0 +1,352 @@
+import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.StringTokenizer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class Tuner {
+
+	// Searches the tunable values of RBv2019 for the set that puts out the flame and
+	// returns home fastest, with the fewest collisions, over many simulated missions.
+	//
+	// Usage: java Tuner [-arena file] [-candidates n] [-missions n] [-rounds n]
+	//                   [-limit seconds] [-seed n] [-threads n] [-top n]
+	//
+	// The candidates are ranked by the missions they complete, and those that complete
+	// as many by their cost: the mean mission time plus a penalty per collision.
+	// The first round tries the current values and random candidates. Every other round
+	// tries variations of the best candidates so far, in a range that shrinks by half
+	// each round. All the candidates run the same missions, so they are compared on
+	// equal terms. The missions run in parallel on a fork-join pool.
+	//
+	// The missions are only those the current values complete within the time limit,
+	// so a candle the route never finds or a limit too short for the far rooms does
+	// not score every candidate zero. Without any such mission, or when no candidate
+	// completes a mission, there is no best candidate and the tuner exits with 1.
+
+	private static final String[] NAMES = { "GAIN", "DELTA_LIMITE", "BASE_POWER", "ROTATE_POWER",
+			"TURN_POWER", "MIN_DISTANCE_FRONT", "MIN_DISTANCE_RIGHT", "MIN_DISTANCE_LEFT", "LINE_LIMIT", "IS_PRESENT_LIMIT" };
+	private static final double[] MIN = { 0.2, 1, 5, 3, 5, 8, 8, 8, 60, 100 };
+	private static final double[] MAX = { 2.0, 10, 16, 10, 16, 30, 30, 30, 400, 800 };
+
+	private static final double COLLISION_PENALTY = 5000; // Cost of a collision (ms).
+	private static final double START_JITTER = 3;         // Maximum error of the start position (cm).
+	private static final double HEADING_JITTER = 10;      // Maximum error of the start heading (degrees).
+	private static final double WHEEL_MISMATCH = 0.05;    // Maximum mismatch between the wheels.
+	private static final float CANDLE_MARGIN = 20;        // Minimum distance from the candle to the walls (cm).
+	private static final int SCREEN_ATTEMPTS = 4;         // Scenarios tried per mission kept.
+
+	private static String sArenaFile;
+	private static long sTimeLimit = 180000;
+
+	// ================================================================================
+	// Candidates.
+	// ================================================================================
+
+	private static class Candidate {
+		double[] mValues;
+		double[][] mResults;  // Results of each mission, see Mission.
+
+		int mSuccesses;
+		double mMeanTime;
+		double mMeanCollisions;
+		double mCost;
+
+		Candidate(double[] values, int missions) {
+			mValues = values;
+			mResults = new double[missions][];
+		}
+
+		void summarize() {
+			// A failed mission costs the whole time limit.
+			mSuccesses = 0;
+			double time = 0;
+			double collisions = 0;
+			for (int i = 0; i < mResults.length; i++) {
+				double[] r = mResults[i];
+				if (r[Mission.OUTCOME] == SimWorld.SUCCESS)
+					mSuccesses++;
+				time += r[Mission.TIME];
+				collisions += r[Mission.COLLISIONS];
+			}
+			mMeanTime = time / mResults.length;
+			mMeanCollisions = collisions / mResults.length;
+			mCost = mMeanTime + COLLISION_PENALTY * mMeanCollisions;
+		}
+	}
+
+	// ================================================================================
+	// Missions.
+	// ================================================================================
+
+	private static class Scenario {
+		long mSeed;
+		float[] mStart;
+		float[] mCandle;
+		float[] mWheelGains;
+	}
+
+	private static Scenario[] createScenarios(Arena arena, int missions, Random random) {
+		// Random start poses around the start of the arena, and the candle in a random room.
+		Scenario[] s = new Scenario[missions];
+		for (int i = 0; i < missions; i++) {
+			s[i] = new Scenario();
+			s[i].mSeed = random.nextLong();
+			s[i].mStart = new float[] { arena.getStartX() + (float) uniform(random, START_JITTER),
+					arena.getStartY() + (float) uniform(random, START_JITTER),
+					arena.getStartHeading() + (float) Math.toRadians(uniform(random, HEADING_JITTER)) };
+			float[] room = arena.getRoomArea(random.nextInt(arena.getTotalRooms()));
+			s[i].mCandle = new float[] {
+					room[0] + CANDLE_MARGIN + random.nextFloat() * (room[2] - room[0] - 2 * CANDLE_MARGIN),
+					room[1] + CANDLE_MARGIN + random.nextFloat() * (room[3] - room[1] - 2 * CANDLE_MARGIN) };
+			s[i].mWheelGains = new float[] { 1 + (float) uniform(random, WHEEL_MISMATCH),
+					1 + (float) uniform(random, WHEEL_MISMATCH) };
+		}
+		return s;
+	}
+
+	private static Scenario[] screenScenarios(Arena arena, int missions, Random random, ForkJoinPool pool)
+			throws Exception {
+		// Scenarios the current values complete, tried in batches until there are as many
+		// as the missions or SCREEN_ATTEMPTS times as many have been tried.
+		List<Scenario> kept = new ArrayList<Scenario>();
+		int tried = 0;
+		while (kept.size() < missions && tried < missions * SCREEN_ATTEMPTS) {
+			Scenario[] s = createScenarios(arena, missions - kept.size(), random);
+			Candidate c = new Candidate(currentValues(), s.length);
+			pool.invoke(new MissionBatch(new Candidate[] { c }, s, 0, s.length));
+			for (int i = 0; i < s.length; i++)
+				if (c.mResults[i][Mission.OUTCOME] == SimWorld.SUCCESS)
+					kept.add(s[i]);
+			tried += s.length;
+		}
+		System.out.println(kept.size() + " of " + tried + " scenarios completed by the current values within "
+				+ (sTimeLimit / 1000) + " s");
+		return kept.toArray(new Scenario[kept.size()]);
+	}
+
+	private static double uniform(Random random, double limit) {
+		return (random.nextDouble() * 2 - 1) * limit;
+	}
+
+	// Every worker thread runs its missions in a class loader of its own, since the
+	// state of RBv2019 is static. The loader is kept between missions so the code
+	// stays compiled.
+	private static final ThreadLocal<Method> sMission = new ThreadLocal<Method>() {
+		protected Method initialValue() {
+			try {
+				StringTokenizer st = new StringTokenizer(System.getProperty("java.class.path"), File.pathSeparator);
+				List<URL> urls = new ArrayList<URL>();
+				while (st.hasMoreTokens())
+					urls.add(new File(st.nextToken()).toURI().toURL());
+				ClassLoader loader = new URLClassLoader(urls.toArray(new URL[urls.size()]),
+						ClassLoader.getPlatformClassLoader());
+				return loader.loadClass("Mission").getMethod("run", String.class, long.class, long.class,
+						float[].class, float[].class, float[].class, String[].class, double[].class);
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+	};
+
+	private static class MissionBatch extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private Candidate[] mCandidates;
+		private Scenario[] mScenarios;
+		private int mFrom, mTo; // Range of the runs, candidate * missions + mission.
+
+		MissionBatch(Candidate[] candidates, Scenario[] scenarios, int from, int to) {
+			mCandidates = candidates;
+			mScenarios = scenarios;
+			mFrom = from;
+			mTo = to;
+		}
+
+		protected void compute() {
+			if (mTo - mFrom > 1) {
+				int middle = (mFrom + mTo) >>> 1;
+				invokeAll(new MissionBatch(mCandidates, mScenarios, mFrom, middle),
+						new MissionBatch(mCandidates, mScenarios, middle, mTo));
+				return;
+			}
+			Candidate c = mCandidates[mFrom / mScenarios.length];
+			int m = mFrom % mScenarios.length;
+			Scenario s = mScenarios[m];
+			try {
+				c.mResults[m] = (double[]) sMission.get().invoke(null, sArenaFile, s.mSeed, sTimeLimit, s.mStart,
+						s.mCandle, s.mWheelGains, NAMES, c.mValues);
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	// ================================================================================
+	// Search.
+	// ================================================================================
+
+	public static void main(String[] args) throws Exception {
+		int candidates = 64;
+		int missions = 32;
+		int rounds = 3;
+		long seed = 1;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int top = 10;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-arena"))
+				sArenaFile = args[++i];
+			else if (args[i].equals("-candidates"))
+				candidates = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-missions"))
+				missions = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-rounds"))
+				rounds = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-limit"))
+				sTimeLimit = Long.parseLong(args[++i]) * 1000;
+			else if (args[i].equals("-seed"))
+				seed = Long.parseLong(args[++i]);
+			else if (args[i].equals("-threads"))
+				threads = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-top"))
+				top = Integer.parseInt(args[++i]);
+		}
+
+		// The end of a mission may be signaled in the thread of the sonar sampler.
+		// SimulationEnd is compared by name, each mission has its own copy of the class.
+		Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+			public void uncaughtException(Thread t, Throwable e) {
+				if (!e.getClass().getName().equals("SimulationEnd"))
+					e.printStackTrace();
+			}
+		});
+
+		Random random = new Random(seed);
+		Arena arena = (sArenaFile == null ? Arena.createDefault() : Arena.load(sArenaFile));
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		long start = System.currentTimeMillis();
+		Scenario[] scenarios = screenScenarios(arena, missions, random, pool);
+		if (scenarios.length == 0) {
+			System.out.println("No scenario to tune against, try a longer -limit");
+			pool.shutdown();
+			System.exit(1);
+		}
+		missions = scenarios.length;
+
+		List<Candidate> tried = new ArrayList<Candidate>();
+		Candidate defaults = null;
+		double scale = 1;
+		for (int round = 0; round < rounds; round++) {
+			Candidate[] batch = new Candidate[candidates];
+			for (int i = 0; i < candidates; i++) {
+				double[] v;
+				if (round == 0)
+					v = (i == 0 ? currentValues() : randomValues(random));
+				else
+					v = vary(tried.get(i % Math.min(top, tried.size())).mValues, scale, random);
+				batch[i] = new Candidate(v, missions);
+			}
+			if (round == 0)
+				defaults = batch[0];
+
+			pool.invoke(new MissionBatch(batch, scenarios, 0, candidates * missions));
+			for (int i = 0; i < candidates; i++) {
+				batch[i].summarize();
+				tried.add(batch[i]);
+			}
+			tried.sort(new Comparator<Candidate>() {
+				public int compare(Candidate a, Candidate b) {
+					if (a.mSuccesses != b.mSuccesses)
+						return b.mSuccesses - a.mSuccesses;
+					return Double.compare(a.mCost, b.mCost);
+				}
+			});
+			Candidate best = tried.get(0);
+			System.out.println("Round " + (round + 1) + ": best " + best.mSuccesses + "/" + missions + " successes, cost "
+					+ format(best.mCost / 1000) + " s");
+			scale /= 2;
+		}
+		pool.shutdown();
+		if (tried.get(0).mSuccesses == 0) {
+			System.out.println("No candidate completed a mission, no best candidate");
+			System.exit(1);
+		}
+
+		long elapsed = System.currentTimeMillis() - start;
+		System.out.println();
+		System.out.println((rounds * candidates * missions) + " missions of up to " + (sTimeLimit / 1000) + " s in "
+				+ elapsed + " ms on " + threads + " threads");
+		System.out.println();
+		report(tried, defaults, top, missions);
+	}
+
+	private static double[] currentValues() throws Exception {
+		// The values RBv2019 has now.
+		double[] v = new double[NAMES.length];
+		for (int i = 0; i < v.length; i++) {
+			Field f = RBv2019.class.getDeclaredField(NAMES[i]);
+			f.setAccessible(true);
+			v[i] = (f.getType() == float.class ? round(i, f.getFloat(null)) : f.getInt(null));
+		}
+		return v;
+	}
+
+	private static double[] randomValues(Random random) {
+		double[] v = new double[NAMES.length];
+		for (int i = 0; i < v.length; i++)
+			v[i] = round(i, MIN[i] + random.nextDouble() * (MAX[i] - MIN[i]));
+		return v;
+	}
+
+	private static double[] vary(double[] values, double scale, Random random) {
+		// A variation of the values by up to a quarter of their range, times scale.
+		double[] v = new double[values.length];
+		for (int i = 0; i < v.length; i++) {
+			double x = values[i] + random.nextGaussian() * scale * (MAX[i] - MIN[i]) / 4;
+			v[i] = round(i, Math.max(MIN[i], Math.min(MAX[i], x)));
+		}
+		return v;
+	}
+
+	private static double round(int i, double v) {
+		// Every value except GAIN is an integer in RBv2019.
+		return (NAMES[i].equals("GAIN") ? Math.round(v * 100) / 100.0 : Math.round(v));
+	}
+
+	private static void report(List<Candidate> ranked, Candidate defaults, int top, int missions) {
+		StringBuilder header = new StringBuilder(String.format("%4s %8s %8s %6s %8s", "Rank", "Success", "Time(s)",
+				"Coll.", "Cost(s)"));
+		for (int i = 0; i < NAMES.length; i++)
+			header.append(' ').append(NAMES[i]);
+		System.out.println(header);
+
+		for (int i = 0; i < Math.min(top, ranked.size()); i++)
+			System.out.println(row(i + 1, ranked.get(i), missions));
+		int rank = ranked.indexOf(defaults) + 1;
+		if (rank > top) {
+			System.out.println("...");
+			System.out.println(row(rank, defaults, missions) + "  (current values)");
+		}
+	}
+
+	private static String row(int rank, Candidate c, int missions) {
+		StringBuilder sb = new StringBuilder(String.format("%4d %3d/%-4d %8s %6s %8s", rank, c.mSuccesses, missions,
+				format(c.mMeanTime / 1000), format(c.mMeanCollisions), format(c.mCost / 1000)));
+		for (int i = 0; i < NAMES.length; i++) {
+			String v = (NAMES[i].equals("GAIN") ? format(c.mValues[i]) : String.valueOf((long) c.mValues[i]));
+			sb.append(' ').append(String.format("%" + NAMES[i].length() + "s", v));
+		}
+		return sb.toString();
+	}
+
+	private static String format(double v) {
+		return String.format("%.2f", v);
+	}
+}
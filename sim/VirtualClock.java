@@ -0,0 +1,117 @@
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.LockSupport;
+
+public class VirtualClock implements Clock {
+
+	// Discrete-event clock for the simulator. The threads of the robot take turns:
+	// only one of them runs at a time and the time only advances when it sleeps,
+	// jumping straight to the earliest wake-up. A simulated run therefore takes no
+	// longer than its computations and is the same on every execution.
+	//
+	// The thread that creates the clock holds the turn first. Threads must be
+	// started through start() to take part.
+
+	private static class Waiter implements Comparable<Waiter> {
+		long mTime;
+		int mPriority;
+		long mSequence;
+		Thread mThread;
+
+		Waiter(long time, int priority, long sequence, Thread thread) {
+			mTime = time;
+			mPriority = priority;
+			mSequence = sequence;
+			mThread = thread;
+		}
+
+		public int compareTo(Waiter w) {
+			// Earliest first, then the highest priority, then the first to sleep.
+			if (mTime != w.mTime)
+				return (mTime < w.mTime ? -1 : 1);
+			if (mPriority != w.mPriority)
+				return (mPriority > w.mPriority ? -1 : 1);
+			return (mSequence < w.mSequence ? -1 : (mSequence > w.mSequence ? 1 : 0));
+		}
+	}
+
+	private PriorityQueue<Waiter> mQueue = new PriorityQueue<Waiter>();
+	private long mTime;
+	private long mSequence;
+
+	// Handing the turn over through this volatile makes the state above visible
+	// to the next thread.
+	private volatile Thread mRunning;
+	private volatile boolean mStopped;
+	private int mOutcome;
+
+	public VirtualClock() {
+		mRunning = Thread.currentThread();
+	}
+
+	public long millis() {
+		return mTime;
+	}
+
+	public void sleep(int ms) {
+		if (mStopped)
+			throw new SimulationEnd(mOutcome);
+		Thread me = Thread.currentThread();
+		mQueue.add(new Waiter(mTime + (ms < 0 ? 0 : ms), me.getPriority(), mSequence++, me));
+		handOff();
+		awaitTurn(me);
+	}
+
+	public void start(final Runnable task, int priority) {
+		// The new thread waits for its turn, which comes at the current time once
+		// the caller sleeps.
+		Thread t = new Thread() {
+			public void run() {
+				awaitTurn(this);
+				try {
+					task.run();
+				} catch (SimulationEnd e) {
+					// The end seen by one thread ends them all, even those that only
+					// read what this one published and never touch the world.
+					if (!mStopped)
+						VirtualClock.this.stop(e.getOutcome());
+					throw e;
+				} finally {
+					if (!mStopped)
+						handOff();
+				}
+			}
+		};
+		t.setPriority(priority);
+		t.setDaemon(true);
+		mQueue.add(new Waiter(mTime, priority, mSequence++, t));
+		t.start();
+	}
+
+	public void stop(int outcome) {
+		// Ends the threads waiting for their turn with a SimulationEnd.
+		mOutcome = outcome;
+		mStopped = true;
+		Waiter w;
+		while ((w = mQueue.poll()) != null)
+			LockSupport.unpark(w.mThread);
+	}
+
+	private void handOff() {
+		Waiter w = mQueue.poll();
+		if (w == null) {
+			mRunning = null; // Every thread has finished.
+			return;
+		}
+		mTime = w.mTime;
+		mRunning = w.mThread;
+		LockSupport.unpark(w.mThread);
+	}
+
+	private void awaitTurn(Thread me) {
+		while (mRunning != me) {
+			if (mStopped)
+				throw new SimulationEnd(mOutcome);
+			LockSupport.park(this);
+		}
+	}
+}